@@ -0,0 +1,319 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DecodeScheduler的测试，解码步骤换成了FakeDecodeStep，不读取任何资源，
+ * 解码会一直阻塞到测试打开mGate为止，这样可以控制请求在什么时候合并、取消
+ */
+public class DecodeSchedulerTest extends TestCase {
+    private static final int MAX_CONCURRENT = 4;
+    private static final int SIZE = 100;
+    /**
+     * 一张100x100的ARGB_8888图片占用的内存
+     */
+    private static final long BITMAP_BYTES = SIZE * SIZE * 4;
+    private static final int CACHE_SIZE_KB = 1024;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long WAIT_MS = 100;
+
+    private FakeDecodeStep mDecodeStep;
+    private DecodeScheduler mScheduler;
+    private ImageCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDecodeStep = new FakeDecodeStep();
+        mScheduler = new DecodeScheduler(MAX_CONCURRENT, Long.MAX_VALUE, mDecodeStep);
+        mCache = new ImageCache(CACHE_SIZE_KB);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        //测试失败时也不让解码线程一直阻塞
+        mDecodeStep.mGate.countDown();
+        super.tearDown();
+    }
+
+    public void testMergedRequestsDecodeOnce() throws InterruptedException {
+        RecordingCallback[] callbacks = new RecordingCallback[3];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new RecordingCallback();
+        }
+        submit(callbacks[0], 1, callbacks[0]);
+        waitForDecodeCount(1);
+        //第一个请求正在解码，之后相同内容的请求都合并到它上面
+        for (int i = 1; i < callbacks.length; i++) {
+            submit(callbacks[i], 1, callbacks[i]);
+        }
+        waitForQueueDepth(0);
+        mDecodeStep.mGate.countDown();
+
+        for (RecordingCallback callback : callbacks) {
+            callback.await();
+            assertNotNull(callback.mBitmap);
+            assertSame(callbacks[0].mBitmap, callback.mBitmap);
+        }
+        assertEquals(1, mDecodeStep.mDecodeCount.get());
+        assertTrue(callbacks[0].mDecodeTime >= 0);
+        assertEquals(-1, callbacks[1].mDecodeTime);
+        assertEquals(-1, callbacks[2].mDecodeTime);
+        //每个请求各自持有一次引用
+        assertEquals(callbacks.length, mCache.getRefCount(callbacks[0].mContentKey));
+        assertEquals(0, mScheduler.getQueueDepth());
+    }
+
+    public void testCancelLeaderDeliversToFollower() throws InterruptedException {
+        Object leaderOwner = new Object();
+        RecordingCallback leader = new RecordingCallback();
+        RecordingCallback follower = new RecordingCallback();
+        submit(leaderOwner, 1, leader);
+        waitForDecodeCount(1);
+        submit(follower, 1, follower);
+        waitForQueueDepth(0);
+        //还有请求在等待结果，解码不能被取消
+        cancelOnMainThread(leaderOwner);
+        mDecodeStep.mGate.countDown();
+
+        follower.await();
+        assertNotNull(follower.mBitmap);
+        assertEquals(1, mDecodeStep.mDecodeCount.get());
+        //被取消的请求不回调，它的引用在交付结果时释放，只剩下follower的引用
+        assertFalse(leader.isCalled());
+        assertEquals(1, mCache.getRefCount(follower.mContentKey));
+        assertEquals(0, mScheduler.getQueueDepth());
+    }
+
+    public void testCancelAllReleasesReferences() throws InterruptedException {
+        Object owner = new Object();
+        RecordingCallback[] callbacks = new RecordingCallback[3];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new RecordingCallback();
+        }
+        submit(owner, 1, callbacks[0]);
+        waitForDecodeCount(1);
+        submit(owner, 1, callbacks[1]);
+        submit(owner, 1, callbacks[2]);
+        waitForQueueDepth(0);
+        cancelOnMainThread(owner);
+        mDecodeStep.mGate.countDown();
+
+        //已经开始的解码仍然会完成，图片放入缓存之后所有的引用都被释放
+        final String contentKey = FakeDecodeStep.getContentKey(1);
+        waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (mCache) {
+                    return mCache.getRefCount(contentKey) == 0 && mCache.acquireUncounted(contentKey) != null;
+                }
+            }
+        });
+        //回调和释放引用在同一个Runnable中，引用都释放了说明交付已经结束
+        for (RecordingCallback callback : callbacks) {
+            assertFalse(callback.isCalled());
+        }
+        assertEquals(0, mScheduler.getQueueDepth());
+    }
+
+    public void testCancelBeforeStart() throws InterruptedException {
+        //只有一个解码线程，第二个请求在线程池队列中，取消时直接移除
+        mScheduler = new DecodeScheduler(1, Long.MAX_VALUE, mDecodeStep);
+        Object owner = new Object();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        submit(owner, 1, first);
+        waitForDecodeCount(1);
+        submit(owner, 2, second);
+        assertEquals(1, mScheduler.getQueueDepth());
+        cancelOnMainThread(owner);
+        assertEquals(0, mScheduler.getQueueDepth());
+        mDecodeStep.mGate.countDown();
+
+        final String contentKey = FakeDecodeStep.getContentKey(1);
+        waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (mCache) {
+                    return mCache.getRefCount(contentKey) == 0 && mCache.acquireUncounted(contentKey) != null;
+                }
+            }
+        });
+        assertEquals(1, mDecodeStep.mDecodeCount.get());
+        assertNull(mCache.acquireUncounted(FakeDecodeStep.getContentKey(2)));
+        assertEquals(0, mScheduler.getQueueDepth());
+    }
+
+    public void testOverBudgetWaits() throws InterruptedException {
+        //内存限制只能放下一张图片
+        mScheduler = new DecodeScheduler(MAX_CONCURRENT, BITMAP_BYTES, mDecodeStep);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        submit(first, 1, first);
+        waitForDecodeCount(1);
+        submit(second, 2, second);
+        //第二个请求已经读取了宽高，在等待内存
+        waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                return mDecodeStep.mBoundsCount.get() == 2;
+            }
+        });
+        SystemClock.sleep(WAIT_MS);
+        assertEquals(1, mDecodeStep.mDecodeCount.get());
+        assertEquals(1, mScheduler.getQueueDepth());
+        assertEquals(BITMAP_BYTES, mScheduler.getInFlightBytes());
+        mDecodeStep.mGate.countDown();
+
+        first.await();
+        second.await();
+        assertNotNull(second.mBitmap);
+        //没有因为内存不够而降低图片的质量
+        assertEquals(1, second.mSampleSize);
+        assertEquals(2, mDecodeStep.mDecodeCount.get());
+        assertTrue(mScheduler.getMaxWaitTime() >= WAIT_MS);
+        assertEquals(0, mScheduler.getQueueDepth());
+        assertEquals(0, mScheduler.getInFlightBytes());
+    }
+
+    private void submit(Object owner, int resId, RecordingCallback callback) {
+        mScheduler.submit(owner, mCache, null, resId, SIZE, SIZE, callback);
+    }
+
+    private void waitForDecodeCount(final int count) throws InterruptedException {
+        waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                return mDecodeStep.mDecodeCount.get() == count;
+            }
+        });
+    }
+
+    private void waitForQueueDepth(final int depth) throws InterruptedException {
+        waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                return mScheduler.getQueueDepth() == depth;
+            }
+        });
+    }
+
+    /**
+     * 取消和交付结果都应该在主线程中进行
+     */
+    private void cancelOnMainThread(final Object owner) throws InterruptedException {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.cancel(owner);
+            }
+        });
+    }
+
+    private static void runOnMainSync(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private abstract static class Condition {
+        abstract boolean isMet();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            assertTrue("timed out", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 每个resId都是不同的内容，图片的宽高固定为SIZE，解码时等待mGate打开
+     */
+    private static class FakeDecodeStep implements DecodeScheduler.DecodeStep {
+        final CountDownLatch mGate = new CountDownLatch(1);
+        final AtomicInteger mBoundsCount = new AtomicInteger();
+        final AtomicInteger mDecodeCount = new AtomicInteger();
+
+        static String getContentKey(int resId) {
+            return "content" + resId;
+        }
+
+        @Override
+        public String computeContentKey(Resources res, int resId, int reqWidth, int reqHeight) {
+            return getContentKey(resId);
+        }
+
+        @Override
+        public int decodeBounds(Resources res, int resId, BitmapFactory.Options options) {
+            options.outWidth = SIZE;
+            options.outHeight = SIZE;
+            mBoundsCount.incrementAndGet();
+            return ExifUtils.ORIENTATION_NORMAL;
+        }
+
+        @Override
+        public int getPeakMemoryFactor(BitmapFactory.Options options) {
+            return 1;
+        }
+
+        @Override
+        public Bitmap decode(Resources res, int resId, BitmapFactory.Options options) {
+            mDecodeCount.incrementAndGet();
+            try {
+                mGate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Bitmap.createBitmap(options.outWidth / options.inSampleSize,
+                    options.outHeight / options.inSampleSize, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * 记录回调的参数，回调在主线程中执行
+     */
+    private static class RecordingCallback implements DecodeScheduler.Callback {
+        private final CountDownLatch mCalled = new CountDownLatch(1);
+        volatile String mContentKey;
+        volatile Bitmap mBitmap;
+        volatile int mSampleSize;
+        volatile long mDecodeTime;
+
+        @Override
+        public void onDecodeComplete(String contentKey, Bitmap bitmap, int orientation, int sampleSize,
+                                     long decodeTime) {
+            mContentKey = contentKey;
+            mBitmap = bitmap;
+            mSampleSize = sampleSize;
+            mDecodeTime = decodeTime;
+            mCalled.countDown();
+        }
+
+        boolean isCalled() {
+            return mCalled.getCount() == 0;
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("callback not called", mCalled.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+}
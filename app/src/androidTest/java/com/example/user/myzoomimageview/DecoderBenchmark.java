@@ -0,0 +1,71 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * 对比BitmapFactory单线程解码和ParallelJpegDecoder并行解码大图的耗时，
+ * 结果输出到logcat：adb logcat -s DecoderBenchmark
+ */
+public class DecoderBenchmark extends AndroidTestCase {
+    private static final String TAG = "DecoderBenchmark";
+    private static final int WARM_UP = 2;
+    private static final int ITERATIONS = 10;
+
+    public void testLargeJpeg() {
+        Resources res = getContext().getResources();
+        int cores = Runtime.getRuntime().availableProcessors();
+        //应用实际解码时使用的inSampleSize，与DecodeScheduler的计算方法相同
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        int orientation = BitmapUtils.decodeBoundsFromResource(res, R.drawable.t3, options);
+        int appSampleSize = BitmapUtils.calculateSampledSize(options,
+                MainActivity.REQ_WIDTH, MainActivity.REQ_HEIGHT, orientation);
+        options.inSampleSize = appSampleSize;
+        Log.i(TAG, "t3.jpg app inSampleSize=" + appSampleSize
+                + " decoder=" + BitmapUtils.findDecoder(options).getClass().getSimpleName());
+        //解码后只有几百像素的图片，并行解码的开销比节省的时间多，不应该使用
+        assertFalse(BitmapUtils.findDecoder(options) instanceof ParallelJpegDecoder);
+
+        for (int sampleSize : new int[]{1, 2, appSampleSize}) {
+            long single = benchmark(res, R.drawable.t3, sampleSize, new BitmapFactoryDecoder());
+            long parallel = benchmark(res, R.drawable.t3, sampleSize, new ParallelJpegDecoder(0, cores));
+            Log.i(TAG, "t3.jpg inSampleSize=" + sampleSize + " cores=" + cores
+                    + " BitmapFactory=" + single + "ms ParallelJpegDecoder=" + parallel + "ms"
+                    + " speedup=" + (parallel > 0 ? (float) single / parallel : 0f));
+        }
+    }
+
+    /**
+     * 返回多次解码耗时的中位数
+     */
+    private long benchmark(Resources res, int resId, int sampleSize, ImageDecoder decoder) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            //与应用中一样先读取宽高，Options中会带上屏幕密度，两种解码器都要按照它缩放
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            BitmapUtils.decodeBoundsFromResource(res, resId, options);
+            int width = (int) Math.ceil((double) options.outWidth / sampleSize);
+            int height = (int) Math.ceil((double) options.outHeight / sampleSize);
+            options.inSampleSize = sampleSize;
+            long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap = decoder.decode(res, resId, options);
+            long time = SystemClock.elapsedRealtime() - start;
+            assertNotNull(bitmap);
+            //两种解码器得到的图片大小必须一致，否则缓存中的图片大小取决于哪个解码器先解码
+            assertTrue("unexpected size " + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                    Math.abs(bitmap.getWidth() - width) <= 1 && Math.abs(bitmap.getHeight() - height) <= 1);
+            bitmap.recycle();
+            if (i >= WARM_UP) {
+                times[i - WARM_UP] = time;
+            }
+        }
+        Arrays.sort(times);
+        return times[ITERATIONS / 2];
+    }
+}
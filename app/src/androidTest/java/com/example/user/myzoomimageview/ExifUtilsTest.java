@@ -0,0 +1,203 @@
+package com.example.user.myzoomimageview;
+
+import android.graphics.Matrix;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * ExifUtils的测试，图片数据都是手工拼出来的，只包含解析方向需要的那几个段
+ */
+public class ExifUtilsTest extends TestCase {
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TYPE_SHORT = 3;
+
+    public void testBigEndian() throws IOException {
+        byte[] jpeg = jpeg(app1(exif(tiff(false, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_90))));
+        assertEquals(ExifUtils.ORIENTATION_ROTATE_90, readOrientation(jpeg));
+    }
+
+    public void testLittleEndian() throws IOException {
+        byte[] jpeg = jpeg(app1(exif(tiff(true, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_270))));
+        assertEquals(ExifUtils.ORIENTATION_ROTATE_270, readOrientation(jpeg));
+    }
+
+    public void testNoOrientationTag() throws IOException {
+        byte[] jpeg = jpeg(app1(exif(tiff(false, TAG_IMAGE_WIDTH, 600))));
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(jpeg));
+    }
+
+    public void testInvalidOrientationValue() throws IOException {
+        byte[] jpeg = jpeg(app1(exif(tiff(true, TAG_ORIENTATION, 9))));
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(jpeg));
+    }
+
+    public void testTruncatedIfd() throws IOException {
+        //IFD中声明了一个条目，但是条目只有一半的数据
+        byte[] tiff = tiff(false, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_90);
+        byte[] truncated = new byte[8 + 2 + 6];
+        System.arraycopy(tiff, 0, truncated, 0, truncated.length);
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(jpeg(app1(exif(truncated)))));
+    }
+
+    public void testIfdOffsetOutOfRange() throws IOException {
+        byte[] tiff = tiff(false, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_90);
+        //第一个IFD的偏移指向数据之外
+        tiff[7] = 0x7f;
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(jpeg(app1(exif(tiff)))));
+    }
+
+    public void testTruncatedSegment() throws IOException {
+        //APP1段声明的长度比实际的数据长
+        byte[] jpeg = jpeg(app1(exif(tiff(false, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_90))));
+        byte[] truncated = new byte[jpeg.length - 8];
+        System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(truncated));
+    }
+
+    public void testXmpBeforeExif() throws IOException {
+        //XMP也使用APP1段，要跳过它继续查找EXIF
+        byte[] jpeg = jpeg(app1(xmp()), app1(exif(tiff(true, TAG_ORIENTATION, ExifUtils.ORIENTATION_ROTATE_180))));
+        assertEquals(ExifUtils.ORIENTATION_ROTATE_180, readOrientation(jpeg));
+    }
+
+    public void testXmpOnly() throws IOException {
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(jpeg(app1(xmp()))));
+    }
+
+    public void testNotJpeg() throws IOException {
+        byte[] png = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        assertEquals(ExifUtils.ORIENTATION_NORMAL, readOrientation(png));
+    }
+
+    public void testIsSwapped() {
+        for (int orientation = ExifUtils.ORIENTATION_NORMAL; orientation <= ExifUtils.ORIENTATION_ROTATE_270;
+             orientation++) {
+            assertEquals(orientation >= ExifUtils.ORIENTATION_TRANSPOSE, ExifUtils.isSwapped(orientation));
+        }
+    }
+
+    public void testTransposeMatrix() {
+        //沿左上到右下的对角线翻转：(x, y) -> (y, x)
+        assertCorners(ExifUtils.ORIENTATION_TRANSPOSE, 4, 3, new float[]{
+                0, 0,
+                0, 4,
+                3, 0,
+                3, 4
+        });
+    }
+
+    public void testTransverseMatrix() {
+        //沿右上到左下的对角线翻转：(x, y) -> (height - y, width - x)
+        assertCorners(ExifUtils.ORIENTATION_TRANSVERSE, 4, 3, new float[]{
+                3, 4,
+                3, 0,
+                0, 4,
+                0, 0
+        });
+    }
+
+    /**
+     * 检查图片的四个角(0,0)、(w,0)、(0,h)、(w,h)经过方向矩阵之后的位置
+     */
+    private static void assertCorners(int orientation, int width, int height, float[] expected) {
+        Matrix matrix = new Matrix();
+        ExifUtils.setOrientationMatrix(matrix, orientation, width, height);
+        float[] corners = new float[]{
+                0, 0,
+                width, 0,
+                0, height,
+                width, height
+        };
+        matrix.mapPoints(corners);
+        for (int i = 0; i < corners.length; i++) {
+            assertEquals("corner " + i / 2, expected[i], corners[i], 0.001f);
+        }
+    }
+
+    private static int readOrientation(byte[] data) throws IOException {
+        return ExifUtils.readOrientation(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * 拼出只有SOI、给定的段以及SOS的JPEG文件头
+     */
+    private static byte[] jpeg(byte[]... segments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        for (byte[] segment : segments) {
+            out.write(segment);
+        }
+        out.write(0xff);
+        out.write(0xda);
+        return out.toByteArray();
+    }
+
+    private static byte[] app1(byte[] data) {
+        byte[] segment = new byte[data.length + 4];
+        segment[0] = (byte) 0xff;
+        segment[1] = (byte) 0xe1;
+        //段的长度包括长度本身的两个字节
+        segment[2] = (byte) ((data.length + 2) >> 8);
+        segment[3] = (byte) (data.length + 2);
+        System.arraycopy(data, 0, segment, 4, data.length);
+        return segment;
+    }
+
+    private static byte[] exif(byte[] tiff) {
+        byte[] data = new byte[tiff.length + 6];
+        data[0] = 'E';
+        data[1] = 'x';
+        data[2] = 'i';
+        data[3] = 'f';
+        System.arraycopy(tiff, 0, data, 6, tiff.length);
+        return data;
+    }
+
+    private static byte[] xmp() {
+        return "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes();
+    }
+
+    /**
+     * 拼出只有一个IFD、IFD中只有一个SHORT类型条目的TIFF数据
+     */
+    private static byte[] tiff(boolean littleEndian, int tag, int value) {
+        byte[] data = new byte[8 + 2 + 12 + 4];
+        data[0] = data[1] = (byte) (littleEndian ? 'I' : 'M');
+        putShort(data, 2, 42, littleEndian);
+        //第一个IFD紧跟在文件头之后
+        putInt(data, 4, 8, littleEndian);
+        putShort(data, 8, 1, littleEndian);
+        putShort(data, 10, tag, littleEndian);
+        putShort(data, 12, TYPE_SHORT, littleEndian);
+        putInt(data, 14, 1, littleEndian);
+        //SHORT类型的值放在值字段的前两个字节
+        putShort(data, 18, value, littleEndian);
+        return data;
+    }
+
+    private static void putShort(byte[] data, int offset, int value, boolean littleEndian) {
+        if (littleEndian) {
+            data[offset] = (byte) value;
+            data[offset + 1] = (byte) (value >> 8);
+        } else {
+            data[offset] = (byte) (value >> 8);
+            data[offset + 1] = (byte) value;
+        }
+    }
+
+    private static void putInt(byte[] data, int offset, int value, boolean littleEndian) {
+        if (littleEndian) {
+            putShort(data, offset, value & 0xffff, true);
+            putShort(data, offset + 2, value >>> 16, true);
+        } else {
+            putShort(data, offset, value >>> 16, false);
+            putShort(data, offset + 2, value & 0xffff, false);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.user.myzoomimageview;
+
+import android.graphics.Bitmap;
+
+import junit.framework.TestCase;
+
+/**
+ * ImageCache的引用计数测试，每张图片16KB，缓存只能放下两张
+ */
+public class ImageCacheTest extends TestCase {
+    private static final int BITMAP_SIZE = 64;
+    private static final int CACHE_SIZE_KB = 40;
+
+    private ImageCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new ImageCache(CACHE_SIZE_KB);
+    }
+
+    public void testContentKeyIncludesDensity() {
+        //相同的内容放在不同密度的目录中，解码后的大小不同，不能共用缓存
+        assertFalse(ImageCache.getContentKey("abc", 240, 480, 100, 100)
+                .equals(ImageCache.getContentKey("abc", 320, 480, 100, 100)));
+        assertFalse(ImageCache.getContentKey("abc", 240, 480, 100, 100)
+                .equals(ImageCache.getContentKey("abc", 240, 320, 100, 100)));
+    }
+
+    public void testSharedAcquireAcrossKeys() {
+        //两个资源的内容相同，对应同一个内容key
+        String key1 = ImageCache.getKey(1, 100, 100);
+        String key2 = ImageCache.getKey(2, 100, 100);
+        mCache.putContentKey(key1, "content");
+        mCache.putContentKey(key2, "content");
+
+        Bitmap bitmap = createBitmap();
+        assertSame(bitmap, mCache.putAndAcquire(mCache.getContentKey(key1), bitmap));
+        //同一内容再次放入时返回缓存中的那一个
+        assertSame(bitmap, mCache.putAndAcquire(mCache.getContentKey(key2), createBitmap()));
+        assertSame(bitmap, mCache.acquire(mCache.getContentKey(key2)));
+        assertEquals(3, mCache.getRefCount("content"));
+    }
+
+    public void testReleaseToZero() {
+        Bitmap bitmap = createBitmap();
+        mCache.putAndAcquire("content", bitmap);
+        mCache.acquire("content");
+        assertEquals(2, mCache.getRefCount("content"));
+        mCache.release("content");
+        assertEquals(1, mCache.getRefCount("content"));
+        mCache.release("content");
+        assertEquals(0, mCache.getRefCount("content"));
+        //多余的release不会让计数变成负数
+        mCache.release("content");
+        assertEquals(0, mCache.getRefCount("content"));
+        //引用计数为0之后仍然保留在LruCache中
+        assertSame(bitmap, mCache.acquireUncounted("content"));
+    }
+
+    public void testPinnedBitmapReturnsToCacheOnRelease() {
+        Bitmap bitmap = createBitmap();
+        mCache.putAndAcquire("pinned", bitmap);
+        //放入更多的图片，"pinned"会被LruCache回收
+        for (int i = 0; i < 3; i++) {
+            mCache.putAndAcquire("filler" + i, createBitmap());
+            mCache.release("filler" + i);
+        }
+        assertNull("filler0 should have been evicted", mCache.acquireUncounted("filler0"));
+        //正在使用的图片即使被LruCache回收了，也仍然可以取出
+        assertSame(bitmap, mCache.acquireUncounted("pinned"));
+        mCache.release("pinned");
+        mCache.release("pinned");
+        assertEquals(0, mCache.getRefCount("pinned"));
+        //引用计数为0时重新放回LruCache，不在使用中也可以取出
+        assertSame(bitmap, mCache.acquireUncounted("pinned"));
+        assertEquals(1, mCache.getRefCount("pinned"));
+    }
+
+    public void testAcquireUncountedDoesNotCount() {
+        mCache.putAndAcquire("content", createBitmap());
+        mCache.acquireUncounted("content");
+        mCache.acquireUncounted("missing");
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+
+        mCache.acquire("content");
+        mCache.acquire("missing");
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    private static Bitmap createBitmap() {
+        return Bitmap.createBitmap(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.user.myzoomimageview;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.view.ViewPager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.util.Arrays;
+
+/**
+ * 测量从启动MainActivity到第一页显示出缩放好的图片所用的时间，
+ * 结果输出到logcat：adb logcat -s StartupBenchmark
+ *
+ * 通过ViewTreeObserver.OnDrawListener在每一帧绘制之前检查第一页的状态，
+ * 不需要ZoomImageView为了测试记录任何东西，OnDrawListener需要API 16
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class StartupBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "StartupBenchmark";
+    private static final int ITERATIONS = 10;
+    private static final long TIMEOUT = 10 * 1000;
+    private static final long POLL_INTERVAL = 2;
+
+    public void testTimeToFirstImage() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.i(TAG, "skipped, ViewTreeObserver.OnDrawListener requires API 16");
+            return;
+        }
+        Instrumentation instrumentation = getInstrumentation();
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.setClassName(instrumentation.getTargetContext(), MainActivity.class.getName());
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.uptimeMillis();
+            Activity activity = instrumentation.startActivitySync(intent);
+            final ViewPager viewPager = (ViewPager) activity.findViewById(R.id.viewpager);
+            final FirstImageListener listener = new FirstImageListener(viewPager);
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    viewPager.getViewTreeObserver().addOnDrawListener(listener);
+                    //注册之前可能已经绘制过了
+                    listener.onDraw();
+                }
+            });
+            while (listener.mShownTime == 0) {
+                assertTrue("first image not shown in " + TIMEOUT + "ms",
+                        SystemClock.uptimeMillis() - start < TIMEOUT);
+                SystemClock.sleep(POLL_INTERVAL);
+            }
+            //OnDrawListener不能在onDraw中移除
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    viewPager.getViewTreeObserver().removeOnDrawListener(listener);
+                }
+            });
+            times[i] = listener.mShownTime - start;
+            activity.finish();
+            instrumentation.waitForIdleSync();
+        }
+        Arrays.sort(times);
+        Log.i(TAG, "time to first image: median=" + times[ITERATIONS / 2] + "ms min=" + times[0]
+                + "ms max=" + times[ITERATIONS - 1] + "ms");
+    }
+
+    /**
+     * 每一帧绘制之前检查第一页是否已经有图片并且已经按照控件的大小缩放过了，
+     * 满足条件时记录时间，这一帧就会把缩放好的图片画出来
+     */
+    private static class FirstImageListener implements ViewTreeObserver.OnDrawListener {
+        private final ViewPager mViewPager;
+        volatile long mShownTime;
+
+        FirstImageListener(ViewPager viewPager) {
+            mViewPager = viewPager;
+        }
+
+        @Override
+        public void onDraw() {
+            if (mShownTime == 0 && isFirstImageShown(mViewPager)) {
+                mShownTime = SystemClock.uptimeMillis();
+            }
+        }
+    }
+
+    private static boolean isFirstImageShown(ViewPager viewPager) {
+        for (int i = 0; i < viewPager.getChildCount(); i++) {
+            View child = viewPager.getChildAt(i);
+            if (child instanceof ZoomImageView && child.getLeft() == viewPager.getScrollX()) {
+                ImageView imageView = (ImageView) child;
+                //初始化之前的矩阵是单位矩阵，换图片时也会重置
+                return imageView.getDrawable() != null && !imageView.getImageMatrix().isIdentity();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * 默认的解码器，直接使用BitmapFactory在当前线程中解码，可以解码所有的图片
+ */
+public class BitmapFactoryDecoder implements ImageDecoder {
+    @Override
+    public boolean canDecode(BitmapFactory.Options options) {
+        return true;
+    }
+
+    @Override
+    public Bitmap decode(Resources res, int resId, BitmapFactory.Options options) {
+        return BitmapFactory.decodeResource(res, resId, options);
+    }
+
+    @Override
+    public int getPeakMemoryFactor() {
+        return 1;
+    }
+}
@@ -1,21 +1,118 @@
 package com.example.user.myzoomimageview;
 
+import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.TypedValue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by user on 2016/2/14.
  */
 public class BitmapUtils {
-    public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId,
-                                                         int reqWidth, int reqHeight) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
+    /**
+     * 默认的解码器，其他解码器都不能解码或者解码失败时使用
+     */
+    private static final ImageDecoder DEFAULT_DECODER = new BitmapFactoryDecoder();
+    /**
+     * 按顺序尝试的解码器，第一个能够解码这张图片的解码器负责解码
+     */
+    private static final List<ImageDecoder> sDecoders = new CopyOnWriteArrayList<ImageDecoder>();
+    /**
+     * 读取宽高时的缓冲区大小，以及读取EXIF之后最多可以回退的字节数，EXIF段最大为64KB
+     */
+    private static final int BOUNDS_BUFFER_SIZE = 16 * 1024;
+    private static final int BOUNDS_READ_LIMIT = 128 * 1024;
+
+    static {
+        sDecoders.add(new ParallelJpegDecoder());
+    }
+
+    /**
+     * 注册一个解码器，后注册的解码器优先使用
+     */
+    public static void registerDecoder(ImageDecoder decoder) {
+        sDecoders.add(0, decoder);
+    }
+
+    public static void unregisterDecoder(ImageDecoder decoder) {
+        sDecoders.remove(decoder);
+    }
+
+    /**
+     * 只读取图片的宽高、格式和EXIF中的方向，不分配图片的内存，
+     * 方向和宽高在同一次读取文件头时得到，不需要再单独打开一次文件
+     *
+     * @return EXIF中的方向，取值见ExifUtils.ORIENTATION_*
+     */
+    public static int decodeBoundsFromResource(Resources res, int resId, BitmapFactory.Options options) {
+        TypedValue value = new TypedValue();
+        InputStream in = null;
+        int orientation = ExifUtils.ORIENTATION_NORMAL;
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeResource(res, resId, options);
-        options.inSampleSize = calculateSampledSize(options, reqWidth, reqHeight);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+        try {
+            in = new BufferedInputStream(res.openRawResource(resId, value), BOUNDS_BUFFER_SIZE);
+            //先读取文件头中的EXIF信息，然后回到文件开头读取宽高
+            in.mark(BOUNDS_READ_LIMIT);
+            try {
+                orientation = ExifUtils.readOrientation(in);
+                in.reset();
+            } catch (IOException e) {
+                //EXIF信息超出了可以回退的范围，重新打开文件
+                closeQuietly(in);
+                in = res.openRawResource(resId, value);
+            }
+            BitmapFactory.decodeResourceStream(res, value, in, null, options);
+        } catch (Resources.NotFoundException e) {
+            options.outWidth = -1;
+            options.outHeight = -1;
+        } finally {
+            closeQuietly(in);
+            options.inJustDecodeBounds = false;
+        }
+        return orientation;
+    }
+
+    /**
+     * 使用已经读取过宽高、设置好inSampleSize的Options解码图片
+     */
+    public static Bitmap decodeBitmapFromResource(Resources res, int resId, BitmapFactory.Options options) {
+        ImageDecoder decoder = findDecoder(options);
+        Bitmap bitmap = decoder.decode(res, resId, options);
+        //解码失败时使用默认的解码器重新解码
+        if (bitmap == null && decoder != DEFAULT_DECODER) {
+            bitmap = DEFAULT_DECODER.decode(res, resId, options);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 根据图片的格式和大小找到第一个能够解码的解码器
+     */
+    static ImageDecoder findDecoder(BitmapFactory.Options options) {
+        for (ImageDecoder decoder : sDecoders) {
+            if (decoder.canDecode(options)) {
+                return decoder;
+            }
+        }
+        return DEFAULT_DECODER;
+    }
+
+    /**
+     * 计算inSampleSize时考虑图片的方向，旋转90度的图片显示时宽高是互换的
+     */
+    public static int calculateSampledSize(BitmapFactory.Options options,
+                                           int reqWidth, int reqHeight, int orientation) {
+        if (ExifUtils.isSwapped(orientation)) {
+            return calculateSampledSize(options, reqHeight, reqWidth);
+        }
+        return calculateSampledSize(options, reqWidth, reqHeight);
     }
 
     public static int calculateSampledSize(BitmapFactory.Options options,
@@ -34,4 +131,137 @@ public class BitmapUtils {
         }
         return inSampledSize;
     }
+
+    /**
+     * 文件头读取的字节数，图片的宽高、格式等信息都在文件头中
+     */
+    private static final int FINGERPRINT_HEADER_SIZE = 4096;
+    /**
+     * 在文件头之后均匀采样的次数，以及每次采样的字节数
+     */
+    private static final int FINGERPRINT_SAMPLE_COUNT = 16;
+    private static final int FINGERPRINT_SAMPLE_SIZE = 256;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 计算图片资源的内容指纹，相同内容的图片即使资源不同也会得到相同的指纹，
+     * 资源被压缩存放、无法得到准确的长度时返回null
+     */
+    public static String computeFingerprint(Resources res, int resId) {
+        InputStream in = null;
+        try {
+            //InputStream.available()只是一个估计值，长度要从文件描述符中得到
+            final long length = getResourceLength(res, resId);
+            if (length < 0) {
+                return null;
+            }
+            in = res.openRawResource(resId);
+            return computeFingerprint(in, length);
+        } catch (IOException e) {
+            return null;
+        } catch (Resources.NotFoundException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 得到资源所在目录的密度，BitmapFactory解码资源时按照它和屏幕密度的比例缩放图片
+     */
+    public static int getResourceDensity(Resources res, int resId) {
+        TypedValue value = new TypedValue();
+        try {
+            res.getValue(resId, value, true);
+        } catch (Resources.NotFoundException e) {
+            return TypedValue.DENSITY_DEFAULT;
+        }
+        return value.density;
+    }
+
+    /**
+     * 得到资源文件的长度，资源被压缩存放时无法打开文件描述符，返回-1
+     */
+    private static long getResourceLength(Resources res, int resId) {
+        AssetFileDescriptor fd = null;
+        try {
+            fd = res.openRawResourceFd(resId);
+            return fd != null ? fd.getLength() : -1;
+        } catch (Resources.NotFoundException e) {
+            return -1;
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算内容指纹：对文件头以及文件体中均匀采样的若干小段数据做FNV-1a哈希，再加上数据的长度，
+     * 只读取很少一部分数据，比对整个文件做哈希要快得多
+     *
+     * @param length 数据的准确长度，用来确定采样的位置
+     */
+    private static String computeFingerprint(InputStream in, final long length) throws IOException {
+        byte[] buffer = new byte[FINGERPRINT_HEADER_SIZE];
+        long hash = FNV_OFFSET_BASIS;
+        long position = 0;
+        int read = readFully(in, buffer, FINGERPRINT_HEADER_SIZE);
+        hash = fnv1a(hash, buffer, read);
+        position += read;
+        if (length > position) {
+            final long step = (length - position) / FINGERPRINT_SAMPLE_COUNT;
+            for (int i = 0; i < FINGERPRINT_SAMPLE_COUNT && step >= FINGERPRINT_SAMPLE_SIZE; i++) {
+                //跳到下一个采样的位置
+                long target = FINGERPRINT_HEADER_SIZE + step * i;
+                if (target > position) {
+                    long skipped = in.skip(target - position);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    position += skipped;
+                }
+                read = readFully(in, buffer, FINGERPRINT_SAMPLE_SIZE);
+                if (read <= 0) {
+                    break;
+                }
+                hash = fnv1a(hash, buffer, read);
+                position += read;
+            }
+        }
+        return Long.toHexString(hash) + "_" + Long.toHexString(length);
+    }
+
+    private static long fnv1a(long hash, byte[] data, int count) {
+        for (int i = 0; i < count; i++) {
+            hash ^= (data[i] & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    static int readFully(InputStream in, byte[] buffer, int count) throws IOException {
+        int total = 0;
+        while (total < count) {
+            int read = in.read(buffer, total, count - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 }
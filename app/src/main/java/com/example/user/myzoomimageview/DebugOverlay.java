@@ -0,0 +1,251 @@
+package com.example.user.myzoomimageview;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * ZoomImageView的调试信息层，显示缩放比例、Bitmap的大小和格式、inSampleSize、
+ * 缓存命中次数、解码耗时、解码调度器的排队情况以及最近的帧耗时
+ *
+ * 所有需要的对象都在构造时创建好，绘制时不会分配任何内存，不会因为显示调试信息而引起GC。
+ * 帧耗时通过Choreographer记录整个窗口每一帧的间隔，而不是这个控件onDraw的间隔，
+ * 滑动ViewPager时子控件不会重新绘制，但是卡顿仍然可以被记录下来
+ */
+class DebugOverlay {
+    /**
+     * 记录最近多少帧的耗时
+     */
+    private static final int FRAME_COUNT = 60;
+    private static final int LINE_COUNT = 8;
+    private static final int TEXT_SIZE_DP = 12;
+    private static final int PADDING_DP = 6;
+    /**
+     * 每隔多少帧重绘一次调试信息，控件本身没有重绘时也能看到最新的帧耗时
+     */
+    private static final int REFRESH_FRAMES = 30;
+    private static final long NANOS_PER_MS = 1000 * 1000;
+
+    private final View mView;
+    private final DecodeScheduler mDecodeScheduler;
+
+    private final Paint mTextPaint;
+    private final Paint mBackgroundPaint;
+    private final float mLineHeight;
+    private final float mPadding;
+    private final float mBackgroundWidth;
+    /**
+     * 拼接文字用的StringBuilder和char数组，重复使用，避免每一帧都创建String
+     */
+    private final StringBuilder mBuilder = new StringBuilder(64);
+    private final char[] mChars = new char[64];
+
+    /**
+     * 最近的帧耗时，循环使用
+     */
+    private final long[] mFrameTimes = new long[FRAME_COUNT];
+    private int mFrameIndex;
+    private int mFrameCount;
+    private long mLastFrameTime;
+    /**
+     * Choreographer需要API 16，更低的版本不记录帧耗时
+     */
+    private final FrameTimer mFrameTimer;
+
+    DebugOverlay(View view) {
+        mView = view;
+        mDecodeScheduler = DecodeScheduler.getInstance();
+        float density = view.getResources().getDisplayMetrics().density;
+        mFrameTimer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameTimer() : null;
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(Color.GREEN);
+        mTextPaint.setTextSize(TEXT_SIZE_DP * density);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(0x99000000);
+        mLineHeight = mTextPaint.getFontSpacing();
+        mPadding = PADDING_DP * density;
+        mBackgroundWidth = mTextPaint.measureText("frame 000ms avg 000ms max 000ms ") + mPadding * 2;
+    }
+
+    /**
+     * 开始记录帧耗时，只在开启了调试信息并且控件在window上时记录，其他时候没有任何开销
+     */
+    void start() {
+        if (mFrameTimer != null) {
+            mFrameTimer.start();
+        }
+    }
+
+    void stop() {
+        if (mFrameTimer != null) {
+            mFrameTimer.stop();
+        }
+    }
+
+    /**
+     * 每一帧开始时调用，记录与上一帧的时间间隔
+     */
+    private void onFrame(long frameTimeNanos) {
+        if (mLastFrameTime != 0) {
+            mFrameTimes[mFrameIndex] = (frameTimeNanos - mLastFrameTime) / NANOS_PER_MS;
+            mFrameIndex = (mFrameIndex + 1) % FRAME_COUNT;
+            if (mFrameCount < FRAME_COUNT) {
+                mFrameCount++;
+            }
+            if (mFrameIndex % REFRESH_FRAMES == 0) {
+                mView.invalidate();
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+    }
+
+    void draw(Canvas canvas, float scale, float initScale, float maxScale, Drawable drawable,
+              int sampleSize, long decodeTime, ImageCache imageCache) {
+        canvas.drawRect(0, 0, mBackgroundWidth, mLineHeight * LINE_COUNT + mPadding * 2, mBackgroundPaint);
+        float y = mPadding - mTextPaint.ascent();
+
+        StringBuilder sb = mBuilder;
+        sb.setLength(0);
+        sb.append("scale ");
+        appendFixed(sb, scale);
+        sb.append(" init ");
+        appendFixed(sb, initScale);
+        sb.append(" max ");
+        appendFixed(sb, maxScale);
+        y = drawLine(canvas, y);
+
+        Bitmap bitmap = drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+        sb.setLength(0);
+        if (bitmap != null) {
+            sb.append("bitmap ").append(bitmap.getWidth()).append('x').append(bitmap.getHeight())
+                    .append(' ').append(bitmap.getConfig() != null ? bitmap.getConfig().name() : "?");
+        } else {
+            sb.append("bitmap none");
+        }
+        y = drawLine(canvas, y);
+
+        sb.setLength(0);
+        sb.append("bytes ").append(bitmap != null ? bitmap.getByteCount() / 1024 : 0).append("KB")
+                .append(" inSampleSize ");
+        if (sampleSize > 0) {
+            sb.append(sampleSize);
+        } else {
+            sb.append('-');
+        }
+        y = drawLine(canvas, y);
+
+        sb.setLength(0);
+        sb.append("cache hit ").append(imageCache != null ? imageCache.getHitCount() : 0)
+                .append(" miss ").append(imageCache != null ? imageCache.getMissCount() : 0);
+        y = drawLine(canvas, y);
+
+        sb.setLength(0);
+        //decodeTime小于0表示图片是从缓存中取出来的，没有进行解码
+        if (decodeTime >= 0) {
+            sb.append("decode ").append(decodeTime).append("ms");
+        } else {
+            sb.append("decode cached");
+        }
+        y = drawLine(canvas, y);
+
+        //解码调度器是整个进程共用的，这里的数据包括所有Activity的解码请求
+        sb.setLength(0);
+        sb.append("queue ").append(mDecodeScheduler.getQueueDepth())
+                .append(" in-flight ").append(mDecodeScheduler.getInFlightBytes() / 1024).append("KB");
+        y = drawLine(canvas, y);
+
+        sb.setLength(0);
+        sb.append("wait avg ").append(mDecodeScheduler.getAverageWaitTime())
+                .append("ms max ").append(mDecodeScheduler.getMaxWaitTime()).append("ms");
+        y = drawLine(canvas, y);
+
+        long last = 0;
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < mFrameCount; i++) {
+            long time = mFrameTimes[i];
+            total += time;
+            max = Math.max(max, time);
+        }
+        if (mFrameCount > 0) {
+            last = mFrameTimes[(mFrameIndex + FRAME_COUNT - 1) % FRAME_COUNT];
+        }
+        sb.setLength(0);
+        if (mFrameTimer != null) {
+            sb.append("frame ").append(last).append("ms avg ")
+                    .append(mFrameCount > 0 ? total / mFrameCount : 0).append("ms max ").append(max).append("ms");
+        } else {
+            sb.append("frame n/a");
+        }
+        drawLine(canvas, y);
+    }
+
+    /**
+     * 将StringBuilder中的文字画出来，返回下一行的y坐标
+     */
+    private float drawLine(Canvas canvas, float y) {
+        int length = Math.min(mBuilder.length(), mChars.length);
+        mBuilder.getChars(0, length, mChars, 0);
+        canvas.drawText(mChars, 0, length, mPadding, y, mTextPaint);
+        return y + mLineHeight;
+    }
+
+    /**
+     * 保留两位小数拼接浮点数，StringBuilder.append(float)会创建临时对象，因此自己转换
+     */
+    private static void appendFixed(StringBuilder sb, float value) {
+        int hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            sb.append('-');
+            hundredths = -hundredths;
+        }
+        sb.append(hundredths / 100).append('.');
+        int fraction = hundredths % 100;
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    /**
+     * 在每一帧开始时记录时间，开启之后每一帧都重新注册自己
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameTimer implements Choreographer.FrameCallback {
+        private boolean mRunning;
+
+        void start() {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            //中间停止过，不计算停止期间的间隔
+            mLastFrameTime = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统一调度所有的图片解码，限制同时解码的数量以及正在解码的图片占用的总内存，
+ * 整个进程共用一个实例（getInstance()），多个Activity同时存在时限制仍然是全局的
+ *
+ * 每个解码请求都属于一个owner（比如Activity），可以一次取消一个owner的所有请求。
+ * 图片内容的指纹在解码线程中计算，不占用主线程；计算之后先从缓存中查找，
+ * 相同内容的图片正在解码时，新的请求不会再解码一次，而是等待同一次解码的结果。
+ * 正在解码的图片占用的内存超过限制时，新的请求会排队等待，而不是同时解码导致内存突增；
+ * 单个请求本身就超过限制时，加大inSampleSize直到不超过限制为止
+ */
+public class DecodeScheduler {
+    /**
+     * 默认同时解码的数量，大图的解码本身可能已经是多线程的，因此不需要太多
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+    /**
+     * 默认正在解码的图片最多占用应用最大可用内存的1/8
+     */
+    private static final int IN_FLIGHT_MEMORY_DIVIDER = 8;
+
+    private static DecodeScheduler sInstance;
+
+    private final DecodeStep mDecodeStep;
+    private final long mMaxInFlightBytes;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 以下的状态都由mLock保护
+     */
+    private final Object mLock = new Object();
+    private final Map<Object, List<Task>> mGroups = new HashMap<Object, List<Task>>();
+    /**
+     * 正在解码的请求，按照缓存分开，以内容key保存，同一个缓存中相同内容key的请求共用同一次解码
+     */
+    private final Map<ImageCache, Map<String, Task>> mPending = new HashMap<ImageCache, Map<String, Task>>();
+    private long mInFlightBytes;
+    /**
+     * 已经提交但还没有开始解码的请求数量
+     */
+    private int mQueueDepth;
+    private int mStartedCount;
+    private long mTotalWaitTime;
+    private long mMaxWaitTime;
+
+    /**
+     * 解码完成的回调，在主线程中调用，被取消的请求不会回调
+     */
+    public interface Callback {
+        /**
+         * @param contentKey 图片在缓存中的内容key
+         * @param bitmap 解码后的图片，解码失败时为null；图片已经放入缓存并且增加了引用计数，
+         *               不再使用时需要调用ImageCache.release(contentKey)
+         * @param orientation EXIF中的方向，图片没有被旋转，显示时需要按照这个方向旋转
+         * @param sampleSize 实际使用的inSampleSize，内存紧张时可能比请求的大
+         * @param decodeTime 解码耗时，不包括排队等待的时间，从缓存中得到或者合并到其他请求上、
+         *                   没有自己解码的请求为-1
+         */
+        void onDecodeComplete(String contentKey, Bitmap bitmap, int orientation, int sampleSize, long decodeTime);
+    }
+
+    /**
+     * 解码的各个步骤，默认使用BitmapUtils，测试时可以替换掉
+     */
+    interface DecodeStep {
+        /**
+         * 计算图片的内容key，计算失败时返回null，这时以资源作为key
+         */
+        String computeContentKey(Resources res, int resId, int reqWidth, int reqHeight);
+
+        /**
+         * 读取图片的宽高，返回EXIF中的方向
+         */
+        int decodeBounds(Resources res, int resId, BitmapFactory.Options options);
+
+        /**
+         * 按照options解码时，解码过程中占用的内存是解码后图片大小的几倍
+         */
+        int getPeakMemoryFactor(BitmapFactory.Options options);
+
+        Bitmap decode(Resources res, int resId, BitmapFactory.Options options);
+    }
+
+    private static final DecodeStep DEFAULT_DECODE_STEP = new DecodeStep() {
+        @Override
+        public String computeContentKey(Resources res, int resId, int reqWidth, int reqHeight) {
+            String fingerprint = BitmapUtils.computeFingerprint(res, resId);
+            if (fingerprint == null) {
+                return null;
+            }
+            return ImageCache.getContentKey(fingerprint, BitmapUtils.getResourceDensity(res, resId),
+                    res.getDisplayMetrics().densityDpi, reqWidth, reqHeight);
+        }
+
+        @Override
+        public int decodeBounds(Resources res, int resId, BitmapFactory.Options options) {
+            return BitmapUtils.decodeBoundsFromResource(res, resId, options);
+        }
+
+        @Override
+        public int getPeakMemoryFactor(BitmapFactory.Options options) {
+            return BitmapUtils.findDecoder(options).getPeakMemoryFactor();
+        }
+
+        @Override
+        public Bitmap decode(Resources res, int resId, BitmapFactory.Options options) {
+            return BitmapUtils.decodeBitmapFromResource(res, resId, options);
+        }
+    };
+
+    /**
+     * 得到整个进程共用的解码调度器，同时解码的数量和内存的限制对所有的Activity都有效
+     */
+    public static synchronized DecodeScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecodeScheduler(DEFAULT_MAX_CONCURRENT,
+                    Runtime.getRuntime().maxMemory() / IN_FLIGHT_MEMORY_DIVIDER, DEFAULT_DECODE_STEP);
+        }
+        return sInstance;
+    }
+
+    DecodeScheduler(int maxConcurrent, long maxInFlightBytes, DecodeStep decodeStep) {
+        maxConcurrent = Math.max(1, maxConcurrent);
+        mDecodeStep = decodeStep;
+        mMaxInFlightBytes = maxInFlightBytes;
+        mExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "DecodeScheduler #" + (++mCount));
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一个解码请求，图片的内容key、缓存的查找和解码都在解码线程中进行
+     *
+     * @param owner 请求所属的对象，调用cancel(owner)可以取消它的所有请求
+     * @param imageCache 在这个缓存中查找图片，解码后的图片也放入这个缓存
+     */
+    public Task submit(Object owner, ImageCache imageCache, Resources res, int resId, int reqWidth, int reqHeight,
+                       Callback callback) {
+        Task task = new Task(owner, imageCache, res, resId, reqWidth, reqHeight, callback);
+        synchronized (mLock) {
+            List<Task> group = mGroups.get(owner);
+            if (group == null) {
+                group = new ArrayList<Task>();
+                mGroups.put(owner, group);
+            }
+            group.add(task);
+            mQueueDepth++;
+        }
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * 取消某个owner的所有请求
+     */
+    public void cancel(Object owner) {
+        synchronized (mLock) {
+            List<Task> group = mGroups.remove(owner);
+            if (group == null) {
+                return;
+            }
+            for (Task task : group) {
+                cancelLocked(task);
+            }
+            //唤醒正在等待内存的请求，让它们发现自己已经被取消了
+            mLock.notifyAll();
+        }
+    }
+
+    private void cancelLocked(Task task) {
+        if (task.mCancelled) {
+            return;
+        }
+        task.mCancelled = true;
+        //共用同一次解码的请求全部被取消之后，这次解码才真正取消
+        Task leader = task.mLeader != null ? task.mLeader : task;
+        if (!leader.isAbandonedLocked()) {
+            return;
+        }
+        removeFromPendingLocked(leader);
+        //还在线程池队列中的请求直接移除，不会再执行
+        if (mExecutor.remove(leader)) {
+            mQueueDepth--;
+        }
+    }
+
+    private Task getPendingLocked(ImageCache imageCache, String contentKey) {
+        Map<String, Task> pending = mPending.get(imageCache);
+        return pending != null ? pending.get(contentKey) : null;
+    }
+
+    private void putPendingLocked(Task task) {
+        Map<String, Task> pending = mPending.get(task.mImageCache);
+        if (pending == null) {
+            pending = new HashMap<String, Task>();
+            mPending.put(task.mImageCache, pending);
+        }
+        pending.put(task.mContentKey, task);
+    }
+
+    private void removeFromPendingLocked(Task task) {
+        Map<String, Task> pending = mPending.get(task.mImageCache);
+        if (pending == null || task.mContentKey == null || pending.get(task.mContentKey) != task) {
+            return;
+        }
+        pending.remove(task.mContentKey);
+        if (pending.isEmpty()) {
+            mPending.remove(task.mImageCache);
+        }
+    }
+
+    private void removeFromGroupLocked(Task task) {
+        List<Task> group = mGroups.get(task.mOwner);
+        if (group != null) {
+            group.remove(task);
+            if (group.isEmpty()) {
+                mGroups.remove(task.mOwner);
+            }
+        }
+    }
+
+    /**
+     * 已经提交但还没有开始解码的请求数量，包括等待内存的请求
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mQueueDepth;
+        }
+    }
+
+    /**
+     * 正在解码的图片预计占用的内存
+     */
+    public long getInFlightBytes() {
+        synchronized (mLock) {
+            return mInFlightBytes;
+        }
+    }
+
+    /**
+     * 从提交到开始解码的平均等待时间
+     */
+    public long getAverageWaitTime() {
+        synchronized (mLock) {
+            return mStartedCount > 0 ? mTotalWaitTime / mStartedCount : 0;
+        }
+    }
+
+    public long getMaxWaitTime() {
+        synchronized (mLock) {
+            return mMaxWaitTime;
+        }
+    }
+
+    /**
+     * 估算解码之后的图片占用的内存，不包括解码过程中额外占用的内存
+     */
+    private static long estimateBytes(BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        long width = (options.outWidth + sampleSize - 1) / sampleSize;
+        long height = (options.outHeight + sampleSize - 1) / sampleSize;
+        int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+        return width * height * bytesPerPixel;
+    }
+
+    public class Task implements Runnable {
+        private final Object mOwner;
+        private final ImageCache mImageCache;
+        private final Resources mRes;
+        private final int mResId;
+        private final int mReqWidth;
+        private final int mReqHeight;
+        private final Callback mCallback;
+        private final long mSubmitTime;
+        private volatile boolean mCancelled;
+        /**
+         * 在解码线程中得到的内容key，合并到这个请求上、等待同一次解码结果的请求，
+         * 以及被合并的请求对应的那个请求，都由mLock保护
+         */
+        private String mContentKey;
+        private final List<Task> mFollowers = new ArrayList<Task>();
+        private Task mLeader;
+
+        private Task(Object owner, ImageCache imageCache, Resources res, int resId, int reqWidth, int reqHeight,
+                     Callback callback) {
+            mOwner = owner;
+            mImageCache = imageCache;
+            mRes = res;
+            mResId = resId;
+            mReqWidth = reqWidth;
+            mReqHeight = reqHeight;
+            mCallback = callback;
+            mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        public void cancel() {
+            synchronized (mLock) {
+                cancelLocked(this);
+                removeFromGroupLocked(this);
+                mLock.notifyAll();
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * 这个请求以及合并到它上面的请求是否都已经被取消了
+         */
+        private boolean isAbandonedLocked() {
+            if (!mCancelled) {
+                return false;
+            }
+            for (Task follower : mFollowers) {
+                if (!follower.mCancelled) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            synchronized (mLock) {
+                if (isAbandonedLocked()) {
+                    //没能从线程池队列中移除的请求，仍然计算在排队的数量中
+                    finishLocked();
+                    return;
+                }
+            }
+            //先用资源key查找内容key，没有找到时在这里计算指纹，读取文件不会占用主线程
+            final String key = ImageCache.getKey(mResId, mReqWidth, mReqHeight);
+            String contentKey = mImageCache.getContentKey(key);
+            //内容key已知时，调用者在提交之前已经查找过一次缓存，不再重复计数
+            final boolean lookedUp = contentKey != null;
+            if (contentKey == null) {
+                contentKey = mDecodeStep.computeContentKey(mRes, mResId, mReqWidth, mReqHeight);
+                //计算失败时退化为使用资源作为key
+                if (contentKey == null) {
+                    contentKey = key;
+                }
+                mImageCache.putContentKey(key, contentKey);
+            }
+            synchronized (mLock) {
+                if (isAbandonedLocked()) {
+                    finishLocked();
+                    return;
+                }
+                mContentKey = contentKey;
+                Task leader = getPendingLocked(mImageCache, contentKey);
+                if (leader != null) {
+                    //相同内容的图片正在解码，不需要再解码一次，等待它的结果
+                    mLeader = leader;
+                    leader.mFollowers.add(this);
+                    mQueueDepth--;
+                    return;
+                }
+                Bitmap cached = lookedUp ? mImageCache.acquireUncounted(contentKey) : mImageCache.acquire(contentKey);
+                if (cached != null) {
+                    mQueueDepth--;
+                    deliver(Collections.singletonList(this), cached, mImageCache.getOrientation(contentKey), 0, -1);
+                    return;
+                }
+                putPendingLocked(this);
+            }
+            //先读取图片的宽高和方向，估算解码之后占用的内存
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            final int orientation = mDecodeStep.decodeBounds(mRes, mResId, options);
+            options.inSampleSize = BitmapUtils.calculateSampledSize(options, mReqWidth, mReqHeight, orientation);
+            //有的解码器在解码过程中会占用更多的内存，比如并行解码时所有的条和目标图片同时存在，
+            //使用哪个解码器与inSampleSize有关，每次改变inSampleSize之后都要重新计算
+            long bytes = estimateBytes(options) * mDecodeStep.getPeakMemoryFactor(options);
+            //单张图片就超过了内存限制，只能降低图片的质量
+            while (bytes > mMaxInFlightBytes && options.outWidth / options.inSampleSize > 1
+                    && options.outHeight / options.inSampleSize > 1) {
+                options.inSampleSize *= 2;
+                bytes = estimateBytes(options) * mDecodeStep.getPeakMemoryFactor(options);
+            }
+            //内存不够时排队等待其他图片解码完成，除非当前没有正在解码的图片
+            synchronized (mLock) {
+                while (!isAbandonedLocked() && mInFlightBytes > 0 && mInFlightBytes + bytes > mMaxInFlightBytes) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        //不再等待，直接解码，合并到这个请求上的请求仍然需要结果
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (isAbandonedLocked()) {
+                    finishLocked();
+                    return;
+                }
+                mQueueDepth--;
+                mInFlightBytes += bytes;
+                long waitTime = SystemClock.elapsedRealtime() - mSubmitTime;
+                mStartedCount++;
+                mTotalWaitTime += waitTime;
+                mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+            }
+
+            Bitmap bitmap = null;
+            long start = SystemClock.elapsedRealtime();
+            try {
+                bitmap = mDecodeStep.decode(mRes, mResId, options);
+            } catch (OutOfMemoryError e) {
+                //解码失败，回调时返回null
+            } finally {
+                synchronized (mLock) {
+                    mInFlightBytes -= bytes;
+                    mLock.notifyAll();
+                }
+            }
+            long decodeTime = SystemClock.elapsedRealtime() - start;
+            if (bitmap != null) {
+                //先放入缓存再从mPending中移除，之后的请求一定能从其中一个地方得到这张图片
+                bitmap = mImageCache.putAndAcquire(contentKey, bitmap);
+                mImageCache.putOrientation(contentKey, orientation);
+            }
+            //解码完成之后不能再合并新的请求，合并的请求各自增加一次引用计数
+            List<Task> tasks = new ArrayList<Task>();
+            synchronized (mLock) {
+                removeFromPendingLocked(this);
+                tasks.add(this);
+                for (Task follower : mFollowers) {
+                    if (bitmap != null) {
+                        mImageCache.acquire(contentKey);
+                    }
+                    tasks.add(follower);
+                }
+            }
+            deliver(tasks, bitmap, orientation, options.inSampleSize, decodeTime);
+        }
+
+        /**
+         * 在主线程中将结果交给各个请求，第一个请求是自己解码的，其他的请求解码耗时记为-1，
+         * 已经被取消的请求释放图片的引用
+         */
+        private void deliver(final List<Task> tasks, final Bitmap bitmap, final int orientation,
+                             final int sampleSize, final long decodeTime) {
+            final String contentKey = mContentKey;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Task task : tasks) {
+                        synchronized (mLock) {
+                            removeFromGroupLocked(task);
+                        }
+                        //在主线程中再检查一次，取消和回调都发生在主线程，不会有竞争
+                        if (task.mCancelled) {
+                            if (bitmap != null) {
+                                mImageCache.release(contentKey);
+                            }
+                        } else {
+                            task.mCallback.onDecodeComplete(contentKey, bitmap, orientation, sampleSize,
+                                    task == Task.this ? decodeTime : -1);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * 被取消的请求在开始解码之前结束时调用
+         */
+        private void finishLocked() {
+            mQueueDepth--;
+            removeFromPendingLocked(this);
+            removeFromGroupLocked(this);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.user.myzoomimageview;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 读取JPEG图片EXIF中的方向信息，只解析文件头中的APP1段，不需要解码图片
+ *
+ * 方向的取值与ExifInterface中的ORIENTATION_*一致，图片的旋转通过Matrix完成，
+ * 不需要再创建一张旋转后的Bitmap
+ */
+public class ExifUtils {
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int TAG_ORIENTATION = 0x0112;
+    /**
+     * APP1段中"Exif\0\0"之后才是TIFF数据
+     */
+    private static final int TIFF_OFFSET = 6;
+
+    /**
+     * 从图片的开头读取EXIF中的方向信息，读取失败或者没有方向信息时返回ORIENTATION_NORMAL
+     */
+    public static int readOrientation(InputStream in) throws IOException {
+        if (in.read() != 0xff || in.read() != MARKER_SOI) {
+            //不是JPEG图片
+            return ORIENTATION_NORMAL;
+        }
+        while (true) {
+            if (in.read() != 0xff) {
+                return ORIENTATION_NORMAL;
+            }
+            int marker = in.read();
+            //跳过填充的0xff
+            while (marker == 0xff) {
+                marker = in.read();
+            }
+            //到了图片数据或者文件结尾，后面不会再有EXIF信息了
+            if (marker < 0 || marker == MARKER_SOS || marker == MARKER_EOI) {
+                return ORIENTATION_NORMAL;
+            }
+            int length = readUnsignedShort(in) - 2;
+            if (length < 0) {
+                return ORIENTATION_NORMAL;
+            }
+            if (marker == MARKER_APP1 && length > TIFF_OFFSET) {
+                byte[] data = new byte[length];
+                if (BitmapUtils.readFully(in, data, length) < length) {
+                    return ORIENTATION_NORMAL;
+                }
+                //APP1段也可能是XMP等其他数据，不是EXIF时继续查找
+                if (data[0] == 'E' && data[1] == 'x' && data[2] == 'i' && data[3] == 'f'
+                        && data[4] == 0 && data[5] == 0) {
+                    return parseTiff(data, TIFF_OFFSET);
+                }
+            } else if (!skipFully(in, length)) {
+                return ORIENTATION_NORMAL;
+            }
+        }
+    }
+
+    /**
+     * 在TIFF数据的第一个IFD中查找方向的值
+     */
+    private static int parseTiff(byte[] data, int offset) {
+        if (data.length < offset + 8) {
+            return ORIENTATION_NORMAL;
+        }
+        boolean littleEndian;
+        if (data[offset] == 'I' && data[offset + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[offset] == 'M' && data[offset + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return ORIENTATION_NORMAL;
+        }
+        if (getShort(data, offset + 2, littleEndian) != 42) {
+            return ORIENTATION_NORMAL;
+        }
+        int ifdOffset = offset + getInt(data, offset + 4, littleEndian);
+        if (ifdOffset < offset || ifdOffset + 2 > data.length) {
+            return ORIENTATION_NORMAL;
+        }
+        int count = getShort(data, ifdOffset, littleEndian);
+        for (int i = 0; i < count; i++) {
+            //每个条目12个字节：tag(2) type(2) count(4) value(4)
+            int entry = ifdOffset + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                break;
+            }
+            if (getShort(data, entry, littleEndian) == TAG_ORIENTATION) {
+                int orientation = getShort(data, entry + 8, littleEndian);
+                if (orientation >= ORIENTATION_NORMAL && orientation <= ORIENTATION_ROTATE_270) {
+                    return orientation;
+                }
+                break;
+            }
+        }
+        return ORIENTATION_NORMAL;
+    }
+
+    /**
+     * 这个方向的图片显示时宽和高是否需要互换
+     */
+    public static boolean isSwapped(int orientation) {
+        return orientation >= ORIENTATION_TRANSPOSE && orientation <= ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * 将图片按照EXIF的方向旋转或者翻转，并且平移到左上角为(0,0)的位置，
+     * 作用之后图片的宽高为旋转后的宽高
+     */
+    public static void setOrientationMatrix(Matrix matrix, int orientation, int width, int height) {
+        matrix.reset();
+        switch (orientation) {
+            case ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                return;
+        }
+        //旋转或者翻转之后图片会跑到坐标轴的另一边，平移回来
+        RectF rect = new RectF(0, 0, width, height);
+        matrix.mapRect(rect);
+        matrix.postTranslate(-rect.left, -rect.top);
+    }
+
+    private static int getShort(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+        }
+        return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+    }
+
+    private static int getInt(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return getShort(data, offset, true) | getShort(data, offset + 2, true) << 16;
+        }
+        return getShort(data, offset, false) << 16 | getShort(data, offset + 2, false);
+    }
+
+    private static int readUnsignedShort(InputStream in) throws IOException {
+        int high = in.read();
+        int low = in.read();
+        if ((high | low) < 0) {
+            return -1;
+        }
+        return high << 8 | low;
+    }
+
+    private static boolean skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                //skip不一定能跳过，尝试读一个字节
+                if (in.read() < 0) {
+                    return false;
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+        return true;
+    }
+}
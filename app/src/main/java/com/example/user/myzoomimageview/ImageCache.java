@@ -0,0 +1,208 @@
+package com.example.user.myzoomimageview;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内存中的图片缓存，缓存已经解码好的Bitmap，
+ * 保存在RetainFragment中，屏幕旋转时不会被销毁，旋转后不需要重新解码
+ *
+ * 缓存以图片内容的指纹作为key，相同内容的图片（不管来自哪个资源）只解码一次，只占一份内存，
+ * 多个ZoomImageView共用同一个Bitmap时通过引用计数管理，正在使用的Bitmap不会被LruCache回收掉
+ */
+public class ImageCache {
+    /**
+     * 缓存使用的内存为应用最大可用内存的1/8
+     */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    private LruCache<String, Bitmap> mMemoryCache;
+    /**
+     * 请求的key（资源+大小）到内容key（指纹+大小）的映射，避免每次都重新计算指纹
+     */
+    private Map<String, String> mContentKeys = new HashMap<String, String>();
+    /**
+     * 正在被使用的Bitmap以及它的引用计数
+     */
+    private Map<String, Entry> mInUse = new HashMap<String, Entry>();
+    /**
+     * 图片EXIF中的方向，与内容有关，以内容key保存，从缓存中取出图片时一起取出
+     */
+    private Map<String, Integer> mOrientations = new HashMap<String, Integer>();
+    /**
+     * 缓存命中和未命中的次数，用于调试信息的显示
+     */
+    private int mHitCount;
+    private int mMissCount;
+
+    private static class Entry {
+        Bitmap bitmap;
+        int refCount;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    public ImageCache() {
+        //以KB为单位计算缓存的大小
+        this((int) (Runtime.getRuntime().maxMemory() / 1024) / MEMORY_CACHE_DIVIDER);
+    }
+
+    /**
+     * @param cacheSize LruCache的大小，以KB为单位
+     */
+    ImageCache(int cacheSize) {
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                //缓存的大小以KB计算，而不是以条目数计算
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * 根据图片资源和请求的宽高生成缓存的key，同一张图片请求不同大小时对应不同的缓存
+     */
+    public static String getKey(int resId, int reqWidth, int reqHeight) {
+        return resId + "_" + reqWidth + "x" + reqHeight;
+    }
+
+    /**
+     * 根据图片内容的指纹、密度和请求的宽高生成缓存的key，内容相同的图片对应同一个key，
+     * 解码后的大小与资源所在目录的密度以及屏幕的密度有关，相同的内容放在不同密度的目录中时key也不同
+     *
+     * @param density 资源所在目录的密度，即TypedValue.density
+     * @param targetDensity 屏幕的密度
+     */
+    public static String getContentKey(String fingerprint, int density, int targetDensity,
+                                       int reqWidth, int reqHeight) {
+        return fingerprint + "_" + density + "-" + targetDensity + "dpi_" + reqWidth + "x" + reqHeight;
+    }
+
+    public synchronized String getContentKey(String key) {
+        return mContentKeys.get(key);
+    }
+
+    public synchronized void putContentKey(String key, String contentKey) {
+        mContentKeys.put(key, contentKey);
+    }
+
+    public synchronized int getOrientation(String contentKey) {
+        Integer orientation = mOrientations.get(contentKey);
+        return orientation != null ? orientation : ExifUtils.ORIENTATION_NORMAL;
+    }
+
+    public synchronized void putOrientation(String contentKey, int orientation) {
+        if (orientation == ExifUtils.ORIENTATION_NORMAL) {
+            mOrientations.remove(contentKey);
+        } else {
+            mOrientations.put(contentKey, orientation);
+        }
+    }
+
+    /**
+     * 获得缓存中的Bitmap并将引用计数加1，没有找到时返回null，
+     * 使用完之后需要调用release
+     */
+    public synchronized Bitmap acquire(String contentKey) {
+        Bitmap bitmap = acquireInternal(contentKey);
+        if (bitmap != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 与acquire相同，但是不计入命中和未命中的次数，
+     * 用于调用者已经查找过一次、这次查找不应该重复计数的情况
+     */
+    public synchronized Bitmap acquireUncounted(String contentKey) {
+        return acquireInternal(contentKey);
+    }
+
+    private Bitmap acquireInternal(String contentKey) {
+        if (contentKey == null) {
+            return null;
+        }
+        Entry entry = mInUse.get(contentKey);
+        if (entry == null) {
+            Bitmap bitmap = mMemoryCache.get(contentKey);
+            if (bitmap == null) {
+                return null;
+            }
+            entry = new Entry(bitmap);
+            mInUse.put(contentKey, entry);
+        }
+        entry.refCount++;
+        return entry.bitmap;
+    }
+
+    /**
+     * 将解码好的Bitmap放入缓存并将引用计数加1，
+     * 如果相同内容的图片已经在缓存中了，则返回缓存中的那一个，传入的Bitmap不再使用
+     */
+    public synchronized Bitmap putAndAcquire(String contentKey, Bitmap bitmap) {
+        if (contentKey == null || bitmap == null) {
+            return bitmap;
+        }
+        Bitmap cached = acquireInternal(contentKey);
+        if (cached != null) {
+            return cached;
+        }
+        mMemoryCache.put(contentKey, bitmap);
+        Entry entry = new Entry(bitmap);
+        entry.refCount = 1;
+        mInUse.put(contentKey, entry);
+        return bitmap;
+    }
+
+    /**
+     * 引用计数减1，计数为0时Bitmap仍然保留在LruCache中，可以被回收
+     */
+    public synchronized void release(String contentKey) {
+        if (contentKey == null) {
+            return;
+        }
+        Entry entry = mInUse.get(contentKey);
+        if (entry == null) {
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount <= 0) {
+            mInUse.remove(contentKey);
+            //被LruCache回收之后又被使用过的Bitmap，重新放回缓存
+            if (mMemoryCache.get(contentKey) == null) {
+                mMemoryCache.put(contentKey, entry.bitmap);
+            }
+        }
+    }
+
+    /**
+     * 正在使用这张图片的引用数，没有被使用时为0
+     */
+    synchronized int getRefCount(String contentKey) {
+        Entry entry = mInUse.get(contentKey);
+        return entry != null ? entry.refCount : 0;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized void clear() {
+        mMemoryCache.evictAll();
+        mContentKeys.clear();
+        mOrientations.clear();
+    }
+}
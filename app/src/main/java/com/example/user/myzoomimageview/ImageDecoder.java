@@ -0,0 +1,27 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * 图片解码器接口，BitmapUtils根据图片的格式和大小选择合适的解码器进行解码
+ */
+public interface ImageDecoder {
+    /**
+     * 判断是否能够解码这张图片
+     *
+     * @param options 已经读取过图片边界的Options，outWidth、outHeight、outMimeType和inSampleSize都已经设置好了
+     */
+    boolean canDecode(BitmapFactory.Options options);
+
+    /**
+     * 按照options中的inSampleSize等参数解码图片，解码失败时返回null
+     */
+    Bitmap decode(Resources res, int resId, BitmapFactory.Options options);
+
+    /**
+     * 解码过程中占用的内存最多是解码后图片大小的几倍，DecodeScheduler用它估算解码时占用的内存
+     */
+    int getPeakMemoryFactor();
+}
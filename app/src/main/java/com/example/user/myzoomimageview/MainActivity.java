@@ -5,7 +5,9 @@ import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.v7.app.AppCompatActivity;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -13,14 +15,62 @@ import android.view.ViewGroup;
 
 
 public class MainActivity extends AppCompatActivity {
+    private static final String STATE_DEBUG_OVERLAY = "debug_overlay";
+    /**
+     * 解码图片时请求的宽高
+     */
+    static final int REQ_WIDTH = 100;
+    static final int REQ_HEIGHT = 100;
     private ViewPager mViewPager;
     private int[] images = new int[]{
             R.drawable.t1,R.drawable.t2,R.drawable.t3,R.drawable.t4
     };
     private ZoomImageView[] mImageViews = new ZoomImageView[images.length];
+    /**
+     * 每一页图片的缩放状态，页面被销毁或者屏幕旋转时保存，重新创建页面时恢复
+     */
+    private SparseArray<SparseArray<Parcelable>> mPageStates = new SparseArray<SparseArray<Parcelable>>();
+    private ImageCache mImageCache;
+    private DecodeScheduler mDecodeScheduler;
+    /**
+     * 每一页还没有完成的解码请求，页面销毁时取消
+     */
+    private DecodeScheduler.Task[] mDecodeTasks = new DecodeScheduler.Task[images.length];
+    /**
+     * 每一页已经加载好的图片，页面还没有创建时（比如启动时预先解码的第一页）先保存在这里，
+     * 页面销毁时用来释放缓存中图片的引用
+     */
+    private PageImage[] mPageImages = new PageImage[images.length];
+    /**
+     * 是否显示图片的调试信息
+     */
+    private boolean mDebugOverlayEnabled;
+
+    /**
+     * 一页已经加载好的图片以及它的解码信息
+     */
+    private static class PageImage {
+        String contentKey;
+        Bitmap bitmap;
+        int orientation;
+        int sampleSize;
+        long decodeTime;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        //图片缓存保存在RetainFragment中，屏幕旋转之后仍然可以使用，不需要重新解码
+        RetainFragment retainFragment = RetainFragment.findOrCreateRetainFragment(getSupportFragmentManager());
+        mImageCache = retainFragment.getImageCache();
+        //整个进程的解码都交给同一个调度器，限制同时解码的数量和占用的内存，快速滑动时不会导致内存突增
+        mDecodeScheduler = DecodeScheduler.getInstance();
+        if (savedInstanceState != null){
+            mDebugOverlayEnabled = savedInstanceState.getBoolean(STATE_DEBUG_OVERLAY);
+        }else{
+            //第一次启动时，在加载布局之前就开始在后台解码第一页，解码和布局的创建同时进行
+            loadBitmap(0);
+        }
         setContentView(R.layout.activity_main);
         mViewPager = (ViewPager) findViewById(R.id.viewpager);
         mViewPager.setAdapter(new PagerAdapter() {
@@ -28,16 +78,58 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public Object instantiateItem(ViewGroup container, int position) {
                 ZoomImageView imageView = new ZoomImageView(getApplicationContext());
-                Bitmap bitmap = BitmapUtils.decodeSampledBitmapFromResource(getResources(), images[position], 100, 100);
-                imageView.setImageBitmap(bitmap);
-                container.addView(imageView);
+                //设置id之后才能保存和恢复控件的状态
+                imageView.setId(R.id.zoom_image_view);
                 mImageViews[position] = imageView;
+                loadBitmap(position);
+                imageView.setDebugOverlayEnabled(mDebugOverlayEnabled);
+                SparseArray<Parcelable> state = mPageStates.get(position);
+                if (state != null){
+                    imageView.restoreHierarchyState(state);
+                }
+                container.addView(imageView);
                 return imageView;
             }
 
             @Override
             public void destroyItem(ViewGroup container, int position, Object object) {
+                savePageState(position);
                 container.removeView(mImageViews[position]);
+                mImageViews[position] = null;
+                if (mDecodeTasks[position] != null){
+                    mDecodeTasks[position].cancel();
+                    mDecodeTasks[position] = null;
+                }
+                releaseBitmap(position);
+            }
+
+            @Override
+            public Parcelable saveState() {
+                //保存当前还存在的页面的状态
+                for (int i = 0; i < mImageViews.length; i++){
+                    savePageState(i);
+                }
+                Bundle bundle = new Bundle();
+                for (int i = 0; i < mPageStates.size(); i++){
+                    bundle.putSparseParcelableArray(String.valueOf(mPageStates.keyAt(i)), mPageStates.valueAt(i));
+                }
+                return bundle;
+            }
+
+            @Override
+            public void restoreState(Parcelable state, ClassLoader loader) {
+                if (!(state instanceof Bundle)){
+                    return;
+                }
+                Bundle bundle = (Bundle) state;
+                bundle.setClassLoader(loader);
+                mPageStates.clear();
+                for (String key : bundle.keySet()){
+                    SparseArray<Parcelable> pageState = bundle.getSparseParcelableArray(key);
+                    if (pageState != null){
+                        mPageStates.put(Integer.parseInt(key), pageState);
+                    }
+                }
             }
 
             @Override
@@ -51,4 +143,135 @@ public class MainActivity extends AppCompatActivity {
             }
         });
     }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_debug_overlay).setChecked(mDebugOverlayEnabled);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_debug_overlay){
+            //开启或者关闭所有页面的调试信息
+            mDebugOverlayEnabled = !item.isChecked();
+            item.setChecked(mDebugOverlayEnabled);
+            for (ZoomImageView imageView : mImageViews){
+                if (imageView != null){
+                    imageView.setDebugOverlayEnabled(mDebugOverlayEnabled);
+                }
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_DEBUG_OVERLAY, mDebugOverlayEnabled);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //取消这个Activity所有还没有完成的解码请求
+        mDecodeScheduler.cancel(this);
+        //释放当前页面对缓存中图片的引用，图片仍然保留在缓存中，屏幕旋转之后可以直接使用
+        for (int i = 0; i < mPageImages.length; i++){
+            releaseBitmap(i);
+        }
+    }
+
+    /**
+     * 先从缓存中查找图片，找不到时交给解码调度器在后台解码，并将解码后的图片放入缓存，
+     * 缓存以图片内容的指纹为key，内容相同的图片只解码一次，多个页面共用一个Bitmap，
+     * 最后将图片和解码信息设置到ZoomImageView上。
+     * 页面还没有创建时也可以调用，图片加载好之后先保存起来，创建页面时直接显示
+     */
+    private void loadBitmap(final int position) {
+        //图片已经加载好了，或者正在解码
+        if (mPageImages[position] != null){
+            showBitmap(position);
+            return;
+        }
+        if (mDecodeTasks[position] != null){
+            return;
+        }
+        int resId = images[position];
+        //只用资源key查找已经计算过的内容key，不在主线程中读取文件计算指纹
+        String contentKey = mImageCache.getContentKey(ImageCache.getKey(resId, REQ_WIDTH, REQ_HEIGHT));
+        Bitmap bitmap = contentKey != null ? mImageCache.acquire(contentKey) : null;
+        if (bitmap != null){
+            //从缓存中取出来的图片没有解码，解码耗时记为-1
+            setPageImage(position, contentKey, bitmap, mImageCache.getOrientation(contentKey), 0, -1);
+            return;
+        }
+        //指纹的计算、缓存的查找和解码都在后台进行，内容相同的图片正在解码时不会再解码一次
+        mDecodeTasks[position] = mDecodeScheduler.submit(this, mImageCache, getResources(), resId,
+                REQ_WIDTH, REQ_HEIGHT,
+                new DecodeScheduler.Callback() {
+                    @Override
+                    public void onDecodeComplete(String contentKey, Bitmap bitmap, int orientation,
+                                                 int sampleSize, long decodeTime) {
+                        //页面销毁时会取消解码请求，因此这里的页面要么还在显示，要么还没有创建
+                        mDecodeTasks[position] = null;
+                        if (bitmap == null){
+                            return;
+                        }
+                        //图片已经由解码调度器放入缓存并且增加了引用计数
+                        setPageImage(position, contentKey, bitmap, orientation, sampleSize, decodeTime);
+                    }
+                });
+    }
+
+    private void setPageImage(int position, String contentKey, Bitmap bitmap, int orientation,
+                              int sampleSize, long decodeTime) {
+        PageImage pageImage = new PageImage();
+        pageImage.contentKey = contentKey;
+        pageImage.bitmap = bitmap;
+        pageImage.orientation = orientation;
+        pageImage.sampleSize = sampleSize;
+        pageImage.decodeTime = decodeTime;
+        mPageImages[position] = pageImage;
+        showBitmap(position);
+    }
+
+    /**
+     * 页面已经创建时，将加载好的图片和解码信息设置到ZoomImageView上
+     */
+    private void showBitmap(int position) {
+        ZoomImageView imageView = mImageViews[position];
+        PageImage pageImage = mPageImages[position];
+        if (imageView == null || pageImage == null){
+            return;
+        }
+        //图片的方向通过ZoomImageView的矩阵来旋转，不需要再创建一张旋转后的图片
+        imageView.setImageBitmap(pageImage.bitmap, pageImage.orientation);
+        imageView.setDecodeInfo(pageImage.sampleSize, pageImage.decodeTime, mImageCache);
+    }
+
+    /**
+     * 释放某一页对缓存中图片的引用
+     */
+    private void releaseBitmap(int position) {
+        if (mPageImages[position] != null){
+            mImageCache.release(mPageImages[position].contentKey);
+            mPageImages[position] = null;
+        }
+    }
+
+    /**
+     * 保存某一页图片的缩放状态
+     */
+    private void savePageState(int position) {
+        ZoomImageView imageView = mImageViews[position];
+        if (imageView == null){
+            return;
+        }
+        SparseArray<Parcelable> state = new SparseArray<Parcelable>();
+        imageView.saveHierarchyState(state);
+        mPageStates.put(position, state);
+    }
 }
@@ -0,0 +1,223 @@
+package com.example.user.myzoomimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 并行解码很大的JPEG图片：将图片按水平方向切成若干条，每条使用各自的BitmapRegionDecoder
+ * 在不同的线程中解码，最后拼到同一张Bitmap上，解码时间随着CPU核数的增加而减少
+ */
+public class ParallelJpegDecoder implements ImageDecoder {
+    private static final String MIME_JPEG = "image/jpeg";
+    /**
+     * 默认按照inSampleSize解码之后超过200万像素的图片才使用并行解码，
+     * 解码后的图片太小时，每条都创建一个BitmapRegionDecoder以及切分和拼接的开销比节省的时间还多
+     */
+    public static final int DEFAULT_MIN_PIXELS = 2000 * 1000;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    /**
+     * 所有并行解码器共用的线程池，线程数等于CPU核数
+     */
+    private static ExecutorService sExecutor;
+
+    private final int mMinPixels;
+    private final int mStripCount;
+
+    public ParallelJpegDecoder() {
+        this(DEFAULT_MIN_PIXELS, CPU_COUNT);
+    }
+
+    public ParallelJpegDecoder(int minPixels, int stripCount) {
+        mMinPixels = minPixels;
+        mStripCount = Math.max(1, stripCount);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(CPU_COUNT, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ParallelJpegDecoder #" + (++mCount));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    @Override
+    public boolean canDecode(BitmapFactory.Options options) {
+        //只有一个核，或者只切成一条时，并行解码没有意义
+        if (CPU_COUNT < 2 || mStripCount < 2) {
+            return false;
+        }
+        //读取宽高时得到的outWidth、outHeight已经按照屏幕密度缩放过了，要换算回图片实际的像素数，
+        //再按照inSampleSize得到每一条实际解码出来的像素数
+        float scale = getDensityScale(options);
+        int sampleSize = Math.max(1, options.inSampleSize);
+        long width = (long) (options.outWidth / scale) / sampleSize;
+        long height = (long) (options.outHeight / scale) / sampleSize;
+        return MIME_JPEG.equals(options.outMimeType) && width * height >= mMinPixels;
+    }
+
+    @Override
+    public Bitmap decode(final Resources res, final int resId, BitmapFactory.Options options) {
+        BitmapRegionDecoder decoder = newRegionDecoder(res, resId);
+        if (decoder == null) {
+            return null;
+        }
+        //BitmapRegionDecoder给出的是图片的原始宽高，不会因为屏幕密度而缩放
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final Bitmap.Config config = options.inPreferredConfig != null
+                ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        //每一条的高度都是inSampleSize的整数倍，这样每一条解码之后的位置都是整数，拼接时不会有缝隙
+        int stripHeight = (height + mStripCount - 1) / mStripCount;
+        stripHeight = (stripHeight + sampleSize - 1) / sampleSize * sampleSize;
+
+        List<Future<Bitmap>> futures = new ArrayList<Future<Bitmap>>();
+        List<Rect> regions = new ArrayList<Rect>();
+        for (int top = 0; top < height; top += stripHeight) {
+            final Rect region = new Rect(0, top, width, Math.min(top + stripHeight, height));
+            regions.add(region);
+            //第一条直接使用已经创建好的decoder，其他的条各自创建decoder
+            //因为同一个BitmapRegionDecoder内部是加锁的，多个线程共用一个decoder并不能并行
+            final BitmapRegionDecoder stripDecoder = top == 0 ? decoder : null;
+            futures.add(getExecutor().submit(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    BitmapRegionDecoder d = stripDecoder != null ? stripDecoder : newRegionDecoder(res, resId);
+                    if (d == null) {
+                        return null;
+                    }
+                    try {
+                        BitmapFactory.Options stripOptions = new BitmapFactory.Options();
+                        stripOptions.inSampleSize = sampleSize;
+                        stripOptions.inPreferredConfig = config;
+                        return d.decodeRegion(region, stripOptions);
+                    } finally {
+                        d.recycle();
+                    }
+                }
+            }));
+        }
+
+        //与BitmapFactory一样按照屏幕密度缩放，保证两种解码器得到的图片大小一致
+        final int sampledWidth = (width + sampleSize - 1) / sampleSize;
+        final int sampledHeight = (height + sampleSize - 1) / sampleSize;
+        final float scale = getDensityScale(options);
+        Bitmap target = null;
+        Canvas canvas = null;
+        Paint paint = null;
+        int i = 0;
+        try {
+            for (; i < futures.size(); i++) {
+                Bitmap strip = futures.get(i).get();
+                if (strip == null) {
+                    //有一条解码失败，返回null，由BitmapUtils使用默认的解码器重新解码
+                    recycle(target);
+                    target = null;
+                    recycleRemaining(futures, i + 1);
+                    break;
+                }
+                if (target == null) {
+                    target = Bitmap.createBitmap((int) (sampledWidth * scale + 0.5f),
+                            (int) (sampledHeight * scale + 0.5f), config);
+                    canvas = new Canvas(target);
+                    if (scale != 1f) {
+                        target.setDensity(options.inTargetDensity);
+                        canvas.scale((float) target.getWidth() / sampledWidth,
+                                (float) target.getHeight() / sampledHeight);
+                        paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+                    }
+                }
+                canvas.drawBitmap(strip, 0, regions.get(i).top / sampleSize, paint);
+                strip.recycle();
+            }
+        } catch (InterruptedException e) {
+            recycle(target);
+            target = null;
+            //已经解码完成的条也要回收
+            recycleRemaining(futures, i);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            recycle(target);
+            target = null;
+            recycleRemaining(futures, i + 1);
+        }
+        return target;
+    }
+
+    /**
+     * 所有的条可能都已经解码完成，还没有拼接到目标图片上，因此最多同时占用两倍的内存
+     */
+    @Override
+    public int getPeakMemoryFactor() {
+        return 2;
+    }
+
+    /**
+     * 得到BitmapFactory解码时按照屏幕密度缩放的比例，计算方法与BitmapFactory相同
+     */
+    private static float getDensityScale(BitmapFactory.Options options) {
+        if (options.inScaled && options.inDensity != 0 && options.inTargetDensity != 0
+                && options.inDensity != options.inScreenDensity) {
+            return (float) options.inTargetDensity / options.inDensity;
+        }
+        return 1f;
+    }
+
+    private static BitmapRegionDecoder newRegionDecoder(Resources res, int resId) {
+        InputStream in = null;
+        try {
+            in = res.openRawResource(resId);
+            return BitmapRegionDecoder.newInstance(in, false);
+        } catch (IOException e) {
+            return null;
+        } catch (Resources.NotFoundException e) {
+            return null;
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+    }
+
+    private static void recycleRemaining(List<Future<Bitmap>> futures, int from) {
+        for (int i = from; i < futures.size(); i++) {
+            try {
+                Bitmap strip = futures.get(i).get();
+                recycle(strip);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ignored) {
+            }
+        }
+    }
+
+    private static void recycle(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+}
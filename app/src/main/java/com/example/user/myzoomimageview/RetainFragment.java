@@ -0,0 +1,42 @@
+package com.example.user.myzoomimageview;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+/**
+ * 没有界面的Fragment，调用了setRetainInstance(true)，屏幕旋转等配置变化时
+ * Activity会被重建，但是这个Fragment对象不会被销毁，因此可以用它来保存图片缓存。
+ * 解码调度器是整个进程共用的（DecodeScheduler.getInstance()），不放在这里
+ */
+public class RetainFragment extends Fragment {
+    private static final String TAG = "RetainFragment";
+
+    private ImageCache mImageCache;
+
+    /**
+     * 查找已经存在的RetainFragment，如果没有找到，则创建一个新的并添加到FragmentManager中
+     */
+    public static RetainFragment findOrCreateRetainFragment(FragmentManager fm) {
+        RetainFragment fragment = (RetainFragment) fm.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = new RetainFragment();
+            fm.beginTransaction().add(fragment, TAG).commitAllowingStateLoss();
+        }
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        //配置变化时保留这个Fragment
+        setRetainInstance(true);
+    }
+
+    public ImageCache getImageCache() {
+        if (mImageCache == null) {
+            mImageCache = new ImageCache();
+        }
+        return mImageCache;
+    }
+}
@@ -1,10 +1,13 @@
 package com.example.user.myzoomimageview;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.support.v4.view.ViewPager;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
@@ -93,6 +96,62 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
     private VelocityTracker mVelocityTracker;
     private FlingRunnable mFlingRunnable;
 
+    //-----------------------------------------------
+    /**
+     * 图片的上下左右边界是否已经到达控件的边界，每次矩阵作用到图片上时更新一次，
+     * 触摸事件和父控件查询能否滑动时直接使用，不用每次都重新计算
+     */
+    private static final int EDGE_LEFT = 1;
+    private static final int EDGE_RIGHT = 1 << 1;
+    private static final int EDGE_TOP = 1 << 2;
+    private static final int EDGE_BOTTOM = 1 << 3;
+    private static final int EDGE_ALL = EDGE_LEFT | EDGE_RIGHT | EDGE_TOP | EDGE_BOTTOM;
+    private int mEdgeFlags = EDGE_ALL;
+    /**
+     * 图片的宽度（高度）是否不小于控件的宽度（高度），小于时该方向不能拖动
+     */
+    private boolean isWideEnough;
+    private boolean isTallEnough;
+    /**
+     * 当前是否已经禁止父控件拦截事件，只有状态发生变化时才调用requestDisallowInterceptTouchEvent
+     */
+    private boolean isParentDisallowed;
+    /**
+     * 用于计算缩放后图片的矩形，重复使用，避免每次都创建
+     */
+    private final RectF mMatrixRect = new RectF();
+    /**
+     * 等待恢复的缩放状态，在onGlobalLayout中完成初始化之后作用到图片上
+     */
+    private SavedState mPendingState;
+    /**
+     * 用于读取Matrix的9个值，重复使用，避免每次都创建数组
+     */
+    private final float[] mMatrixValues = new float[9];
+    /**
+     * 图片EXIF中的方向，初始化时通过矩阵旋转图片
+     */
+    private int mOrientation = ExifUtils.ORIENTATION_NORMAL;
+    /**
+     * 下一次设置的图片的方向，由setImageBitmap(Bitmap, int)设置
+     */
+    private int mNextOrientation = ExifUtils.ORIENTATION_NORMAL;
+
+    //-----------------------------------------------
+    /**
+     * 调试信息层，为null时表示没有开启，不会有任何额外的开销
+     */
+    private DebugOverlay mDebugOverlay;
+    /**
+     * 当前图片解码时使用的inSampleSize和解码耗时，用于调试信息的显示
+     */
+    private int mSampleSize = 1;
+    private long mDecodeTime;
+    /**
+     * 图片所在的缓存，用于在调试信息中显示缓存的命中次数
+     */
+    private ImageCache mImageCache;
+
 
     public ZoomImageView(Context context) {
         this(context, null, 0);
@@ -144,6 +203,9 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
         getViewTreeObserver().addOnGlobalLayoutListener(this);
+        if (mDebugOverlay != null){
+            mDebugOverlay.start();
+        }
     }
 
     /**
@@ -153,6 +215,9 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         getViewTreeObserver().removeGlobalOnLayoutListener(this);
+        if (mDebugOverlay != null){
+            mDebugOverlay.stop();
+        }
     }
 
     /**
@@ -160,22 +225,40 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
      */
     @Override
     public void onGlobalLayout() {
+        //一般在onSizeChanged或者设置图片时就已经初始化过了，这里只是保证一定会初始化
+        initImageMatrix();
+    }
+
+    /**
+     * 根据控件和图片的宽高计算初始的缩放比例，使图片完整地显示在控件中，
+     * 控件的宽高和图片都有了就立即计算，第一帧显示的就是缩放好的图片
+     */
+    private void initImageMatrix() {
         //只有当第一次加载图片的时候才会进行初始化，用一个变量mFirst控制
         if (!mFirst){
-            mFirst = true;
             //得到控件的宽和高
             int width = getWidth();
             int height = getHeight();
             //得到当前ImageView中加载的图片
             Drawable d = getDrawable();
-            if(d == null){//如果没有图片，则直接返回
+            //如果没有图片，则直接返回，图片可能是在后台解码的，等图片设置进来之后再初始化
+            if(d == null || width == 0 || height == 0){
                 return;
             }
+            mFirst = true;
             //得到当前图片的宽和高，图片的宽和高不一定等于控件的宽和高
             //因此我们需要将图片的宽和高与控件宽和高进行判断
             //将图片完整的显示在屏幕中
             int dw = d.getIntrinsicWidth();
             int dh = d.getIntrinsicHeight();
+            //先按照EXIF中的方向旋转图片，图片本身没有旋转，只是通过矩阵旋转，不需要额外的内存
+            ExifUtils.setOrientationMatrix(mScaleMatrix, mOrientation, dw, dh);
+            //旋转了90度或者270度的图片，显示时的宽和高是互换的
+            if (ExifUtils.isSwapped(mOrientation)){
+                int temp = dw;
+                dw = dh;
+                dh = temp;
+            }
             //我们定义一个临时变量，根据图片与控件的宽高比例，来确定这个最终缩放值
             float scale = 1.0f;
             //如果图片宽度大于控件宽度，图片高度小于控件高度
@@ -226,7 +309,123 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
             //最大溢出值为最大值的5被
             mMaxOverScale = mMaxScale * 5;
 
+            //如果有需要恢复的状态（比如屏幕旋转之后），在初始化的基础上恢复缩放比例和中心点
+            if (mPendingState != null){
+                restoreViewport(mPendingState);
+                mPendingState = null;
+            }
+        }
+    }
+
+    /**
+     * 在初始缩放比例的基础上恢复之前的缩放比例，并把之前位于控件中心的图片上的点移回控件中心
+     */
+    private void restoreViewport(SavedState state){
+        Drawable d = getDrawable();
+        if (d == null){
+            return;
         }
+        int width = getWidth();
+        int height = getHeight();
+        //保存的是相对于初始比例的缩放值，这样控件宽高变化之后仍然适用
+        float scale = Math.max(mMinScale, Math.min(mMaxScale, mInitScale * state.relativeScale));
+        float scaleFactor = scale / getScale();
+        mScaleMatrix.postScale(scaleFactor, scaleFactor, width / 2f, height / 2f);
+        //算出之前的焦点现在所在的位置，然后将它平移到控件的中心
+        float[] focus = new float[]{state.focusX * d.getIntrinsicWidth(), state.focusY * d.getIntrinsicHeight()};
+        mScaleMatrix.mapPoints(focus);
+        mScaleMatrix.postTranslate(width / 2f - focus[0], height / 2f - focus[1]);
+        checkBorderAndCenterWhenScale();
+        setImageMatrix(mScaleMatrix);
+    }
+
+    /**
+     * 保存当前的缩放状态：相对于初始比例的缩放值，以及控件中心对应的图片上的点
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable superState = super.onSaveInstanceState();
+        Drawable d = getDrawable();
+        //还没有初始化，说明还没有显示过，把还没有恢复的状态原样保存下来
+        if (!mFirst || d == null || mInitScale == 0){
+            if (mPendingState == null){
+                return superState;
+            }
+            SavedState state = new SavedState(superState);
+            state.relativeScale = mPendingState.relativeScale;
+            state.focusX = mPendingState.focusX;
+            state.focusY = mPendingState.focusY;
+            return state;
+        }
+        SavedState state = new SavedState(superState);
+        state.relativeScale = getScale() / mInitScale;
+        //通过矩阵的逆矩阵，将控件的中心点映射回图片上的坐标
+        Matrix inverse = new Matrix();
+        float[] focus = new float[]{getWidth() / 2f, getHeight() / 2f};
+        if (mScaleMatrix.invert(inverse)){
+            inverse.mapPoints(focus);
+            //保存为相对于图片宽高的比例
+            state.focusX = focus[0] / d.getIntrinsicWidth();
+            state.focusY = focus[1] / d.getIntrinsicHeight();
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)){
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (mFirst && getDrawable() != null){
+            //已经初始化过了，直接恢复
+            restoreViewport(savedState);
+        }else{
+            //等到初始化之后再恢复
+            mPendingState = savedState;
+        }
+    }
+
+    /**
+     * 保存缩放状态，缩放比例是相对于初始比例的，中心点是相对于图片宽高的比例
+     */
+    static class SavedState extends BaseSavedState {
+        float relativeScale = 1.0f;
+        float focusX = 0.5f;
+        float focusY = 0.5f;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            relativeScale = in.readFloat();
+            focusX = in.readFloat();
+            focusY = in.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeFloat(relativeScale);
+            out.writeFloat(focusX);
+            out.writeFloat(focusY);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
     }
 
     /**
@@ -234,23 +433,73 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
      */
     private float getScale(){
         //Matrix为一个3*3的矩阵，一共9个值
-        float[] values = new float[9];
+        float[] values = mMatrixValues;
         //将Matrix的9个值映射到values数组中
         mScaleMatrix.getValues(values);
         //拿到Matrix中的MSCALE_X的值，这个值为图片宽度的缩放比例，因为图片高度
         //的缩放比例和宽度的缩放比例一致，我们取一个就可以了
-        //我们还可以 return values[Matrix.MSCALE_Y];
-        return values[Matrix.MSCALE_X];
+        //图片按照EXIF的方向旋转了90度时MSCALE_X为0，缩放比例在MSKEW_Y中，
+        //翻转时值为负数，因此取两者的平方和再开方
+        float scaleX = values[Matrix.MSCALE_X];
+        float skewY = values[Matrix.MSKEW_Y];
+        return (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
+    }
+
+    /**
+     * 开启或者关闭调试信息层
+     */
+    public void setDebugOverlayEnabled(boolean enabled){
+        if (enabled == (mDebugOverlay != null)){
+            return;
+        }
+        if (enabled){
+            mDebugOverlay = new DebugOverlay(this);
+            //已经在window上时立即开始记录帧耗时，否则等到onAttachedToWindow
+            if (getWindowToken() != null){
+                mDebugOverlay.start();
+            }
+        }else{
+            mDebugOverlay.stop();
+            mDebugOverlay = null;
+        }
+        invalidate();
+    }
+
+    public boolean isDebugOverlayEnabled(){
+        return mDebugOverlay != null;
+    }
+
+    /**
+     * 设置当前图片解码时的信息，在调试信息层中显示，decodeTime小于0表示图片是从缓存中取出来的
+     */
+    public void setDecodeInfo(int sampleSize, long decodeTime, ImageCache imageCache){
+        mSampleSize = sampleSize;
+        mDecodeTime = decodeTime;
+        mImageCache = imageCache;
+        if (mDebugOverlay != null){
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        //没有开启调试信息时什么都不做
+        if (mDebugOverlay != null){
+            mDebugOverlay.draw(canvas, getScale(), mInitScale, mMaxScale, getDrawable(),
+                    mSampleSize, mDecodeTime, mImageCache);
+        }
     }
 
     /**
-     * 获得缩放后图片的上下左右坐标以及宽高
+     * 获得缩放后图片的上下左右坐标以及宽高，返回的矩形是重复使用的，下次调用时会被覆盖
      */
     private RectF getMatrixRectF(){
         //获得当钱图片的矩阵
         Matrix matrix = mScaleMatrix;
-        //创建一个浮点类型的矩形
-        RectF rectF = new RectF();
+        //重复使用同一个矩形
+        RectF rectF = mMatrixRect;
+        rectF.setEmpty();
         //得到当前的图片
         Drawable d = getDrawable();
         if (d != null){
@@ -263,6 +512,136 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
         return rectF;
     }
 
+    /**
+     * 每次将矩阵作用到图片上之后，更新一下图片的边界状态
+     */
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        super.setImageMatrix(matrix);
+        updateEdgeState();
+    }
+
+    /**
+     * 设置图片以及图片EXIF中的方向，图片会在初始化时通过矩阵旋转到正确的方向
+     */
+    public void setImageBitmap(Bitmap bitmap, int orientation) {
+        //方向要在setImageDrawable中初始化之前设置好
+        mNextOrientation = orientation;
+        setImageBitmap(bitmap);
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        Drawable oldDrawable = getDrawable();
+        super.setImageDrawable(drawable);
+        //父类的构造方法中可能会调用到这里，这时还没有初始化
+        if (mScaleMatrix != null && drawable != oldDrawable){
+            //换了新的图片，需要重新计算初始的缩放比例
+            mFirst = false;
+            mOrientation = mNextOrientation;
+            mScaleMatrix.reset();
+            setImageMatrix(mScaleMatrix);
+            //控件已经有宽高时立即初始化，否则等到onSizeChanged
+            initImageMatrix();
+        }
+        mNextOrientation = ExifUtils.ORIENTATION_NORMAL;
+        updateEdgeState();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        //第一次知道控件的宽高时就初始化，不用等到onGlobalLayout
+        initImageMatrix();
+        updateEdgeState();
+    }
+
+    /**
+     * 计算图片的上下左右边界是否已经到达控件的边界
+     */
+    private void updateEdgeState(){
+        //父类的构造方法中可能会调用到这里，这时还没有初始化
+        if (mScaleMatrix == null){
+            return;
+        }
+        if (getDrawable() == null){
+            mEdgeFlags = EDGE_ALL;
+            isWideEnough = false;
+            isTallEnough = false;
+            return;
+        }
+        RectF rectF = getMatrixRectF();
+        int width = getWidth();
+        int height = getHeight();
+        int flags = 0;
+        if (rectF.left >= -0.01f){
+            flags |= EDGE_LEFT;
+        }
+        if (rectF.right <= width + 0.01f){
+            flags |= EDGE_RIGHT;
+        }
+        if (rectF.top >= -0.01f){
+            flags |= EDGE_TOP;
+        }
+        if (rectF.bottom <= height + 0.01f){
+            flags |= EDGE_BOTTOM;
+        }
+        mEdgeFlags = flags;
+        isWideEnough = rectF.width() >= width;
+        isTallEnough = rectF.height() >= height;
+    }
+
+    /**
+     * direction小于0表示能否向左滑动（查看图片左边的内容），大于0表示能否向右滑动，
+     * ViewPager等父控件通过这个方法判断是否应该把滑动交给图片处理
+     */
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        if (direction < 0){
+            return (mEdgeFlags & EDGE_LEFT) == 0;
+        }
+        return direction > 0 && (mEdgeFlags & EDGE_RIGHT) == 0;
+    }
+
+    @Override
+    public boolean canScrollVertically(int direction) {
+        if (direction < 0){
+            return (mEdgeFlags & EDGE_TOP) == 0;
+        }
+        return direction > 0 && (mEdgeFlags & EDGE_BOTTOM) == 0;
+    }
+
+    /**
+     * 根据手指移动的方向决定是否允许父控件拦截事件，只有状态发生变化时才通知父控件
+     * 手指向右移动（dx大于0）时查看的是图片左边的内容，如果图片左边已经到达边界，就把事件交给父控件
+     */
+    private void updateParentIntercept(float dx, float dy, boolean isScaling){
+        boolean disallow;
+        if (!isScaling && dx == 0 && dy == 0){
+            //没有移动，保持原来的状态
+            return;
+        }
+        if (isScaling){
+            //多点触控缩放时一定要自己处理
+            disallow = true;
+        }else if (Math.abs(dx) >= Math.abs(dy)){
+            disallow = canScrollHorizontally(dx > 0 ? -1 : 1);
+        }else{
+            disallow = canScrollVertically(dy > 0 ? -1 : 1);
+        }
+        setParentDisallowed(disallow);
+    }
+
+    private void setParentDisallowed(boolean disallow){
+        if (isParentDisallowed == disallow){
+            return;
+        }
+        isParentDisallowed = disallow;
+        if (getParent() != null){
+            getParent().requestDisallowInterceptTouchEvent(disallow);
+        }
+    }
+
     /**
      * 当缩放时检查边界并且使图片居中
      */
@@ -596,7 +975,6 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
             mLastY = y;
         }
         mLastPointerCount = pointerCount;
-        RectF rectF = getMatrixRectF();
         switch (event.getAction()){
             case MotionEvent.ACTION_DOWN:
                 //初始化速度检测器
@@ -611,24 +989,18 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
                     mFlingRunnable = null;
                 }
                 isCanDrag = false;
-                //当图片处于放大状态时，禁止ViewPager拦截事件，将事件传递给图片，进行拖动
-                if (rectF.width() > getWidth() + 0.01f || rectF.height() > getHeight() + 0.01f){
-                    if (getParent() instanceof ViewPager){
-                        getParent().requestDisallowInterceptTouchEvent(true);
-                    }
-                }
+                //父控件在新的触摸事件开始时会重置拦截状态
+                isParentDisallowed = false;
+                //当图片还有可以滑动的内容时，禁止父控件拦截事件，将事件传递给图片，进行拖动
+                setParentDisallowed(mEdgeFlags != EDGE_ALL);
 
                 break;
             case MotionEvent.ACTION_MOVE:
-                //当图片处于放大状态时，禁止ViewPager拦截事件，将事件传递给图片，进行拖动
-                if (rectF.width() > getWidth() + 0.01f || rectF.height() > getHeight() + 0.01f){
-                    if (getParent() instanceof ViewPager){
-                        getParent().requestDisallowInterceptTouchEvent(true);
-                    }
-                }
                 //得到水平和竖直方向的偏移量
                 float dx = x - mLastX;
                 float dy = y - mLastY;
+                //根据移动的方向和图片的边界状态决定事件交给谁处理，到达边界时交给父控件
+                updateParentIntercept(dx, dy, pointerCount > 1);
                 //如果当前是不可滑动的状态，判断一下是否是滑动的操作
                 if (!isCanDrag){
                     isCanDrag = isMoveAction(dx,dy);
@@ -645,14 +1017,14 @@ public class ZoomImageView extends ImageView implements ScaleGestureDetector.OnS
                         isCheckLeftAndRight = true;
                         isCheckTopAndBottom = true;
                         //如果图片宽度小于控件宽度
-                        if (rectF.width() < getWidth()){
+                        if (!isWideEnough){
                             //左右不可滑动
                             dx = 0;
                             //左右不可滑动，也就不用检查左右的边界了
                             isCheckLeftAndRight = false;
                         }
                         //如果图片的高度小于控件的高度
-                        if (rectF.height() < getHeight()){
+                        if (!isTallEnough){
                             //上下不可滑动
                             dy = 0;
                             //上下不可滑动，也就不用检查上下边界了